@@ -37,6 +37,8 @@ import android.widget.EditText;
 import android.widget.Toast;
 
 import com.example.android.cardreader.R;
+import com.nfcworkshop.format.Formats;
+import com.nfcworkshop.format.MessageTemplate;
 
 import java.io.IOException;
 import java.nio.charset.Charset;
@@ -54,6 +56,13 @@ public class MainActivity extends Activity  implements NfcAdapter.ReaderCallback
 
     private boolean takingOrders = false;
 
+    // Text written to a tag; only used on the NFC reader thread.
+    private final StringBuilder tagText = new StringBuilder(16);
+    // Order toast; only used on the UI thread.
+    private final StringBuilder orderText = new StringBuilder();
+    private final MessageTemplate orderMessage =
+            new MessageTemplate("{} wants a beer! {} now has {} orders.");
+
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
@@ -147,8 +156,9 @@ public class MainActivity extends Activity  implements NfcAdapter.ReaderCallback
                     int orders = getOrders(customerName);
                     orders = ++orders;
                     setOrders(customerName, orders);
-                    String message = String.format("%s wants a beer! %s now has %d orders.", customerName, customerName, orders);
-                    Toast.makeText(MainActivity.this, message, Toast.LENGTH_SHORT).show();
+                    orderText.setLength(0);
+                    orderMessage.appendTo(orderText).text(customerName).text(customerName).number(orders).done();
+                    Toast.makeText(MainActivity.this, orderText.toString(), Toast.LENGTH_SHORT).show();
                 }
             });
             takingOrders = false;
@@ -156,8 +166,9 @@ public class MainActivity extends Activity  implements NfcAdapter.ReaderCallback
         }
     }
 
-    public static String padRight(String s, int n) {
-        return String.format("%1$-" + n + "s", s);
+    private String padRight(String s, int n) {
+        tagText.setLength(0);
+        return Formats.appendPadded(tagText, s, n).toString();
     }
 
 
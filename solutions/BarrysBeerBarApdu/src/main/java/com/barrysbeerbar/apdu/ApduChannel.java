@@ -0,0 +1,24 @@
+package com.barrysbeerbar.apdu;
+
+import java.io.IOException;
+
+/**
+ * Connection to a card that exchanges APDUs, such as an {@code IsoDep} tag.
+ */
+public interface ApduChannel {
+
+    /**
+     * Sends a command APDU and waits for the response APDU.
+     */
+    byte[] transceive(byte[] command) throws IOException;
+
+    /**
+     * @return the maximum number of bytes that can be sent or received in one frame
+     */
+    int getMaxTransceiveLength();
+
+    /**
+     * @return true if the card accepts extended length APDUs
+     */
+    boolean isExtendedLengthApduSupported();
+}
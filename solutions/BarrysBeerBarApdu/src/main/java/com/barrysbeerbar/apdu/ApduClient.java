@@ -0,0 +1,118 @@
+package com.barrysbeerbar.apdu;
+
+import java.io.IOException;
+
+/**
+ * Reader side of an APDU exchange that follows response chaining.
+ *
+ * <p>{@link #transceive(byte[])} sends a command and keeps issuing GET RESPONSE while the card
+ * answers 0x61XX, and repeats the command with the right Le when the card answers 0x6CXX. The
+ * collected response data is returned as one {@link ResponseApdu}. GET RESPONSE commands ask for
+ * as many bytes as fit in one frame of the channel, using extended length APDUs if the channel
+ * supports them, so large payloads take as few round trips as possible.
+ *
+ * <p>The returned response is a view on a buffer that is reused by the next call. Instances are
+ * not thread-safe.
+ */
+public final class ApduClient {
+
+    // Guards against cards that never stop answering 0x61XX.
+    private static final int MAX_RESPONSE_LENGTH = 1 << 20;
+
+    private final CommandApdu command = new CommandApdu();
+    private final ResponseApdu response = new ResponseApdu();
+    private byte[] buffer = new byte[Iso7816.MAX_SHORT_NE + 2];
+    private ApduChannel channel;
+    private ApduTrace trace;
+
+    /**
+     * Sets the channel used by the following calls, typically once per tag.
+     */
+    public void setChannel(ApduChannel channel) {
+        this.channel = channel;
+    }
+
+    /**
+     * Records every exchanged frame in {@code trace}, or stops recording if null.
+     */
+    public void setTrace(ApduTrace trace) {
+        this.trace = trace;
+    }
+
+    /**
+     * @return the largest Ne that can be answered in one frame of the current channel
+     */
+    public int getMaxNe() {
+        int max = channel.getMaxTransceiveLength() - 2;
+        int limit = channel.isExtendedLengthApduSupported()
+                ? Iso7816.MAX_EXTENDED_NE : Iso7816.MAX_SHORT_NE;
+        return Math.max(1, Math.min(max, limit));
+    }
+
+    /**
+     * Sends a command and collects its complete, possibly chained, response.
+     *
+     * @param commandApdu The command to send
+     * @return the response; its data holds all chained parts and its status word is the one of
+     * the last part. Only valid until the next call.
+     * @throws IOException if the exchange fails or the card sends a malformed response
+     */
+    public ResponseApdu transceive(byte[] commandApdu) throws IOException {
+        byte[] part = exchange(commandApdu);
+        int sw = ResponseApdu.statusWord(part, 0, part.length);
+        if ((sw >>> 8) == Iso7816.SW1_CORRECT_LE && command.parse(commandApdu, 0,
+                commandApdu.length)) {
+            int ne = sw & 0xFF;
+            command.setNe(ne == 0 ? Iso7816.MAX_SHORT_NE : ne);
+            part = exchange(command.toByteArray());
+            sw = ResponseApdu.statusWord(part, 0, part.length);
+        }
+        int length = append(part, 0);
+        while ((sw >>> 8) == Iso7816.SW1_BYTES_REMAINING) {
+            int available = sw & 0xFF;
+            int ne = available == 0 ? getMaxNe() : Math.min(available, getMaxNe());
+            command.set(Iso7816.CLA_ISO, Iso7816.INS_GET_RESPONSE, 0, 0);
+            command.setNe(ne);
+            part = exchange(command.toByteArray());
+            sw = ResponseApdu.statusWord(part, 0, part.length);
+            length = append(part, length);
+        }
+        ResponseApdu.encode(buffer, length, sw);
+        response.parse(buffer, 0, length + 2);
+        return response;
+    }
+
+    private byte[] exchange(byte[] commandApdu) throws IOException {
+        if (trace != null) {
+            trace.record(ApduTrace.SENT, commandApdu);
+        }
+        byte[] result = channel.transceive(commandApdu);
+        if (trace != null) {
+            trace.record(ApduTrace.RECEIVED, result);
+        }
+        if (result == null || result.length < 2) {
+            throw new IOException("Response without status word");
+        }
+        return result;
+    }
+
+    /**
+     * Appends the data of {@code part} to the buffer, keeping room for the status word.
+     *
+     * @return the new data length
+     */
+    private int append(byte[] part, int length) throws IOException {
+        int dataLength = part.length - 2;
+        int required = length + dataLength + 2;
+        if (required > MAX_RESPONSE_LENGTH) {
+            throw new IOException("Chained response exceeds " + MAX_RESPONSE_LENGTH + " bytes");
+        }
+        if (required > buffer.length) {
+            byte[] grown = new byte[Math.max(required, buffer.length * 2)];
+            System.arraycopy(buffer, 0, grown, 0, length);
+            buffer = grown;
+        }
+        System.arraycopy(part, 0, buffer, length, dataLength);
+        return length + dataLength;
+    }
+}
@@ -0,0 +1,13 @@
+package com.barrysbeerbar.apdu;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * {@link ApduChannel} that has to be connected before use and closed afterwards, like an
+ * {@code IsoDep} tag.
+ */
+public interface ApduConnection extends ApduChannel, Closeable {
+
+    void connect() throws IOException;
+}
@@ -0,0 +1,113 @@
+package com.barrysbeerbar.apdu;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * Runs several commands over one connection to a card and times each of them.
+ *
+ * <p>A session connects once in {@link #open(ApduConnection)}, sends any number of commands with
+ * {@link #send(byte[])} (following response chaining, see {@link ApduClient}) and disconnects in
+ * {@link #close()}, so a whole transaction fits in a single tap. Sessions can be reused for the
+ * next connection once closed. Instances are not thread-safe.
+ */
+public final class ApduSession implements Closeable {
+
+    private static final int MAX_TIMED_COMMANDS = 16;
+
+    private final ApduClient client = new ApduClient();
+    private final long[] commandNanos = new long[MAX_TIMED_COMMANDS];
+    private ApduConnection connection;
+    private long openNanos;
+    private long sessionNanos;
+    private int commandCount;
+
+    /**
+     * Records every exchanged frame in {@code trace}, or stops recording if null.
+     */
+    public void setTrace(ApduTrace trace) {
+        client.setTrace(trace);
+    }
+
+    /**
+     * Connects to the card. Call {@link #close()} afterwards, also when this method fails.
+     */
+    public void open(ApduConnection connection) throws IOException {
+        this.connection = connection;
+        commandCount = 0;
+        sessionNanos = 0;
+        openNanos = System.nanoTime();
+        client.setChannel(connection);
+        connection.connect();
+    }
+
+    /**
+     * Sends a command and collects its complete response.
+     *
+     * @return the response, only valid until the next call
+     */
+    public ResponseApdu send(byte[] commandApdu) throws IOException {
+        long start = System.nanoTime();
+        ResponseApdu response = client.transceive(commandApdu);
+        if (commandCount < MAX_TIMED_COMMANDS) {
+            commandNanos[commandCount] = System.nanoTime() - start;
+        }
+        commandCount++;
+        return response;
+    }
+
+    /**
+     * @see ApduClient#getMaxNe()
+     */
+    public int getMaxNe() {
+        return client.getMaxNe();
+    }
+
+    /**
+     * @return the number of commands sent in this session
+     */
+    public int getCommandCount() {
+        return commandCount;
+    }
+
+    /**
+     * @return how long command {@code index} took, including chained GET RESPONSEs; 0 for
+     * commands beyond the first 16
+     */
+    public long getCommandNanos(int index) {
+        return index < MAX_TIMED_COMMANDS ? commandNanos[index] : 0;
+    }
+
+    /**
+     * @return time from {@link #open(ApduConnection)} to {@link #close()}, including connecting
+     */
+    public long getSessionNanos() {
+        return sessionNanos;
+    }
+
+    /**
+     * Appends the timings of the last session, such as "4 commands in 41ms: 12ms 9ms 10ms 8ms".
+     */
+    public void appendTimings(StringBuilder out) {
+        out.append(commandCount).append(" commands in ").append(sessionNanos / 1000000)
+                .append("ms:");
+        for (int i = 0; i < Math.min(commandCount, MAX_TIMED_COMMANDS); i++) {
+            out.append(' ').append(commandNanos[i] / 1000000).append("ms");
+        }
+    }
+
+    /**
+     * Disconnects from the card. Does nothing if the session is not open.
+     */
+    @Override
+    public void close() throws IOException {
+        if (connection == null) {
+            return;
+        }
+        ApduConnection closing = connection;
+        connection = null;
+        client.setChannel(null);
+        sessionNanos = System.nanoTime() - openNanos;
+        closing.close();
+    }
+}
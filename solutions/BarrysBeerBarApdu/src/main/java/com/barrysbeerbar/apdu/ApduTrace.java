@@ -0,0 +1,126 @@
+package com.barrysbeerbar.apdu;
+
+/**
+ * Fixed-size ring buffer of exchanged APDUs, replacing per-APDU hex logging.
+ *
+ * <p>All storage is allocated up front and recording only copies the raw bytes, so tracing every
+ * command costs no allocation and no logcat write. The most recent {@code capacity} APDUs are
+ * kept; APDUs longer than {@code maxBytes} are truncated but their full length is recorded.
+ * Conversion to hex only happens in {@link #dump(StringBuilder)}.
+ */
+public final class ApduTrace {
+
+    // Direction of an APDU, seen from the side that owns the trace.
+    public static final int RECEIVED = 0;
+    public static final int SENT = 1;
+
+    private final int capacity;
+    private final int maxBytes;
+    private final long[] timestamps;
+    private final byte[] directions;
+    private final int[] lengths;
+    private final byte[] data;
+    private long count;
+
+    /**
+     * @param capacity Number of APDUs kept
+     * @param maxBytes Number of bytes kept per APDU, 0 to record only lengths
+     */
+    public ApduTrace(int capacity, int maxBytes) {
+        if (capacity <= 0 || maxBytes < 0) {
+            throw new IllegalArgumentException("capacity must be positive and maxBytes non-negative");
+        }
+        this.capacity = capacity;
+        this.maxBytes = maxBytes;
+        this.timestamps = new long[capacity];
+        this.directions = new byte[capacity];
+        this.lengths = new int[capacity];
+        this.data = new byte[capacity * maxBytes];
+    }
+
+    /**
+     * Records an APDU. A null APDU (e.g. a response that will be sent asynchronously) is
+     * recorded with length -1.
+     *
+     * @param direction {@link #RECEIVED} or {@link #SENT}
+     */
+    public void record(int direction, byte[] apdu) {
+        if (apdu == null) {
+            record(direction, null, 0, -1);
+        } else {
+            record(direction, apdu, 0, apdu.length);
+        }
+    }
+
+    /**
+     * Records {@code length} bytes of {@code apdu} from {@code offset}.
+     *
+     * @param direction {@link #RECEIVED} or {@link #SENT}
+     */
+    public synchronized void record(int direction, byte[] apdu, int offset, int length) {
+        int slot = (int) (count % capacity);
+        timestamps[slot] = System.nanoTime();
+        directions[slot] = (byte) direction;
+        lengths[slot] = length;
+        if (length > 0) {
+            System.arraycopy(apdu, offset, data, slot * maxBytes, Math.min(length, maxBytes));
+        }
+        count++;
+    }
+
+    /**
+     * @return the number of APDUs currently held
+     */
+    public synchronized int size() {
+        return (int) Math.min(count, capacity);
+    }
+
+    public synchronized void clear() {
+        count = 0;
+    }
+
+    /**
+     * Appends one line per held APDU, oldest first, such as
+     * {@code "+1.250ms > 5 00A4040005F222333222"}. Times are relative to the oldest APDU,
+     * {@code >} marks sent and {@code <} received APDUs, truncated APDUs end with {@code ...}.
+     */
+    public synchronized void dump(StringBuilder out) {
+        int size = size();
+        long first = count - size;
+        long start = size > 0 ? timestamps[(int) (first % capacity)] : 0;
+        for (long i = first; i < count; i++) {
+            int slot = (int) (i % capacity);
+            long micros = (timestamps[slot] - start) / 1000;
+            out.append('+').append(micros / 1000).append('.');
+            long fraction = micros % 1000;
+            if (fraction < 100) {
+                out.append('0');
+            }
+            if (fraction < 10) {
+                out.append('0');
+            }
+            out.append(fraction).append("ms ")
+                    .append(directions[slot] == SENT ? '>' : '<').append(' ');
+            int length = lengths[slot];
+            if (length < 0) {
+                out.append("(none)");
+            } else {
+                out.append(length).append(' ');
+                Hex.encode(data, slot * maxBytes, Math.min(length, maxBytes), out);
+                if (length > maxBytes) {
+                    out.append("...");
+                }
+            }
+            out.append('\n');
+        }
+    }
+
+    /**
+     * @return the content of {@link #dump(StringBuilder)} as a String
+     */
+    public String dump() {
+        StringBuilder out = new StringBuilder();
+        dump(out);
+        return out.toString();
+    }
+}
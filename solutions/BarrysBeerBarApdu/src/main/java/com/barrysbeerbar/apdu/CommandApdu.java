@@ -0,0 +1,325 @@
+package com.barrysbeerbar.apdu;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Command APDU as defined by ISO 7816-4.
+ *
+ * <p>Format: [CLASS | INSTRUCTION | PARAMETER 1 | PARAMETER 2 | Lc | DATA | Le]
+ *
+ * <p>Both short (Lc and Le of one byte) and extended length APDUs (Lc and Le of two bytes,
+ * preceded by a 0x00 byte) are supported. {@link #encode(byte[], int)} uses the extended form only
+ * when Nc or Ne do not fit in a short APDU.
+ *
+ * <p>Instances are mutable and meant to be reused: {@link #parse(byte[], int, int)} does not copy
+ * the command data but keeps a reference to the buffer it was parsed from, and
+ * {@link #encode(byte[], int)} writes straight into the caller's buffer. Nothing on the parse or
+ * encode path allocates, so a single instance can be kept per thread for the lifetime of the
+ * service. Instances are not thread-safe.
+ */
+public final class CommandApdu {
+
+    private static final byte[] EMPTY = new byte[0];
+
+    private int cla;
+    private int ins;
+    private int p1;
+    private int p2;
+    private byte[] buffer = EMPTY;
+    private int dataOffset;
+    private int nc;
+    private int ne;
+
+    /**
+     * Configures this APDU without command data and without Le (ISO case 1).
+     */
+    public CommandApdu set(int cla, int ins, int p1, int p2) {
+        return set(cla, ins, p1, p2, EMPTY, 0, 0, 0);
+    }
+
+    /**
+     * Configures this APDU. The data is not copied, the caller must not modify it while this
+     * APDU is in use.
+     *
+     * @param data Buffer holding the command data
+     * @param offset Offset of the command data in {@code data}
+     * @param length Number of command data bytes (Nc), 0 to omit Lc
+     * @param ne Maximum number of expected response bytes (Ne), 0 to omit Le
+     * @return this APDU
+     * @throws IllegalArgumentException if Nc or Ne do not fit in an extended length APDU
+     */
+    public CommandApdu set(int cla, int ins, int p1, int p2, byte[] data, int offset, int length,
+                           int ne) {
+        if (length < 0 || length > Iso7816.MAX_EXTENDED_NC) {
+            throw new IllegalArgumentException("Nc out of range: " + length);
+        }
+        if (ne < 0 || ne > Iso7816.MAX_EXTENDED_NE) {
+            throw new IllegalArgumentException("Ne out of range: " + ne);
+        }
+        this.cla = cla & 0xFF;
+        this.ins = ins & 0xFF;
+        this.p1 = p1 & 0xFF;
+        this.p2 = p2 & 0xFF;
+        this.buffer = data;
+        this.dataOffset = offset;
+        this.nc = length;
+        this.ne = ne;
+        return this;
+    }
+
+    /**
+     * Sets Ne, e.g. to retry a command with the length the card asked for in 0x6CXX.
+     */
+    public void setNe(int ne) {
+        if (ne < 0 || ne > Iso7816.MAX_EXTENDED_NE) {
+            throw new IllegalArgumentException("Ne out of range: " + ne);
+        }
+        this.ne = ne;
+    }
+
+    /**
+     * Parses a short or extended length command APDU. On success the fields of this instance
+     * refer to {@code apdu}; on failure the previous content of this instance is undefined.
+     *
+     * @param apdu Buffer holding the command
+     * @param offset Offset of the first header byte
+     * @param length Number of bytes in the command
+     * @return true if the bytes form a well-formed APDU
+     */
+    public boolean parse(byte[] apdu, int offset, int length) {
+        if (length < 4) {
+            return false;
+        }
+        cla = apdu[offset] & 0xFF;
+        ins = apdu[offset + 1] & 0xFF;
+        p1 = apdu[offset + 2] & 0xFF;
+        p2 = apdu[offset + 3] & 0xFF;
+        buffer = apdu;
+        dataOffset = offset + 4;
+        nc = 0;
+        ne = 0;
+        if (length == 4) {
+            // Case 1: header only.
+            return true;
+        }
+        int b = apdu[offset + 4] & 0xFF;
+        if (length == 5) {
+            // Case 2S: Le only, where 0x00 means 256.
+            ne = b == 0 ? Iso7816.MAX_SHORT_NE : b;
+            return true;
+        }
+        if (b != 0) {
+            nc = b;
+            dataOffset = offset + 5;
+            if (length == 5 + nc) {
+                // Case 3S: Lc and data.
+                return true;
+            }
+            if (length == 6 + nc) {
+                // Case 4S: Lc, data and Le.
+                int le = apdu[offset + 5 + nc] & 0xFF;
+                ne = le == 0 ? Iso7816.MAX_SHORT_NE : le;
+                return true;
+            }
+            return false;
+        }
+        // A leading 0x00 (which is not a valid short Lc) marks an extended length APDU.
+        if (length < 7) {
+            return false;
+        }
+        int l = ((apdu[offset + 5] & 0xFF) << 8) | (apdu[offset + 6] & 0xFF);
+        if (length == 7) {
+            // Case 2E: Le only, where 0x0000 means 65536.
+            ne = l == 0 ? Iso7816.MAX_EXTENDED_NE : l;
+            return true;
+        }
+        if (l == 0) {
+            return false;
+        }
+        nc = l;
+        dataOffset = offset + 7;
+        if (length == 7 + nc) {
+            // Case 3E: Lc and data.
+            return true;
+        }
+        if (length == 9 + nc) {
+            // Case 4E: Lc, data and Le.
+            int le = ((apdu[offset + 7 + nc] & 0xFF) << 8) | (apdu[offset + 8 + nc] & 0xFF);
+            ne = le == 0 ? Iso7816.MAX_EXTENDED_NE : le;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * @return true if this APDU needs the extended length encoding
+     */
+    public boolean isExtended() {
+        return nc > Iso7816.MAX_SHORT_NC || ne > Iso7816.MAX_SHORT_NE;
+    }
+
+    /**
+     * @return the number of bytes {@link #encode(byte[], int)} will write
+     */
+    public int length() {
+        int length = 4;
+        boolean extended = isExtended();
+        if (nc > 0) {
+            length += (extended ? 3 : 1) + nc;
+        }
+        if (ne > 0) {
+            length += extended ? (nc > 0 ? 2 : 3) : 1;
+        }
+        return length;
+    }
+
+    /**
+     * Encodes this APDU into {@code dst}.
+     *
+     * @return the number of bytes written
+     * @throws ArrayIndexOutOfBoundsException if {@code dst} is too small
+     */
+    public int encode(byte[] dst, int offset) {
+        int pos = offset;
+        dst[pos++] = (byte) cla;
+        dst[pos++] = (byte) ins;
+        dst[pos++] = (byte) p1;
+        dst[pos++] = (byte) p2;
+        if (isExtended()) {
+            if (nc > 0) {
+                dst[pos++] = 0;
+                dst[pos++] = (byte) (nc >>> 8);
+                dst[pos++] = (byte) nc;
+                System.arraycopy(buffer, dataOffset, dst, pos, nc);
+                pos += nc;
+            }
+            if (ne > 0) {
+                if (nc == 0) {
+                    dst[pos++] = 0;
+                }
+                dst[pos++] = (byte) (ne >>> 8); // 65536 wraps to 0x0000 as required
+                dst[pos++] = (byte) ne;
+            }
+            return pos - offset;
+        }
+        if (nc > 0) {
+            dst[pos++] = (byte) nc;
+            System.arraycopy(buffer, dataOffset, dst, pos, nc);
+            pos += nc;
+        }
+        if (ne > 0) {
+            dst[pos++] = (byte) ne; // 256 wraps to 0x00 as required
+        }
+        return pos - offset;
+    }
+
+    /**
+     * Encodes this APDU at the position of {@code dst} and advances the position.
+     *
+     * @throws java.nio.BufferOverflowException if {@code dst} has too little room
+     */
+    public void encode(ByteBuffer dst) {
+        dst.put((byte) cla).put((byte) ins).put((byte) p1).put((byte) p2);
+        boolean extended = isExtended();
+        if (nc > 0) {
+            if (extended) {
+                dst.put((byte) 0).putShort((short) nc);
+            } else {
+                dst.put((byte) nc);
+            }
+            dst.put(buffer, dataOffset, nc);
+        }
+        if (ne > 0) {
+            if (extended) {
+                if (nc == 0) {
+                    dst.put((byte) 0);
+                }
+                dst.putShort((short) ne);
+            } else {
+                dst.put((byte) ne);
+            }
+        }
+    }
+
+    /**
+     * Encodes this APDU into a new array. Intended for building constant commands once, not for
+     * use per command.
+     */
+    public byte[] toByteArray() {
+        byte[] apdu = new byte[length()];
+        encode(apdu, 0);
+        return apdu;
+    }
+
+    /**
+     * Build APDU for SELECT AID command. This command indicates which service a reader is
+     * interested in communicating with. See ISO 7816-4.
+     *
+     * @param aid Application ID (AID) to select
+     * @return APDU for SELECT AID command
+     */
+    public static byte[] buildSelectApdu(byte[] aid) {
+        return new CommandApdu()
+                .set(Iso7816.CLA_ISO, Iso7816.INS_SELECT, Iso7816.P1_SELECT_BY_NAME,
+                        Iso7816.P2_SELECT_FIRST, aid, 0, aid.length, 0)
+                .toByteArray();
+    }
+
+    /**
+     * Compares the command data with {@code expected} without copying it.
+     */
+    public boolean dataEquals(byte[] expected) {
+        if (expected.length != nc) {
+            return false;
+        }
+        for (int i = 0; i < nc; i++) {
+            if (buffer[dataOffset + i] != expected[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return P1 and P2 combined, as used for offsets and tags
+     */
+    public int getP1P2() {
+        return (p1 << 8) | p2;
+    }
+
+    public int getCla() {
+        return cla;
+    }
+
+    public int getIns() {
+        return ins;
+    }
+
+    public int getP1() {
+        return p1;
+    }
+
+    public int getP2() {
+        return p2;
+    }
+
+    /**
+     * @return the buffer holding the command data; only valid from {@link #getDataOffset()} for
+     * {@link #getNc()} bytes
+     */
+    public byte[] getBuffer() {
+        return buffer;
+    }
+
+    public int getDataOffset() {
+        return dataOffset;
+    }
+
+    public int getNc() {
+        return nc;
+    }
+
+    public int getNe() {
+        return ne;
+    }
+}
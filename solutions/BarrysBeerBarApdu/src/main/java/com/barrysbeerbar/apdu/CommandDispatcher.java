@@ -0,0 +1,206 @@
+package com.barrysbeerbar.apdu;
+
+/**
+ * Routes command APDUs to {@link CommandHandler}s by CLA, INS, P1 and P2.
+ *
+ * <p>Handlers are kept in an open-addressing hash table, so a lookup costs at most two probe
+ * sequences (one for an exact CLA/INS/P1/P2 registration and one for a CLA/INS registration that
+ * accepts any P1/P2) regardless of the number of registered commands.
+ *
+ * <p>Responses with more data than the command's Ne (or 256 bytes if the command has no Le) are
+ * chained as described in ISO 7816-4: the first Ne bytes are sent with 0x61XX and the reader
+ * fetches the rest with GET RESPONSE. GET RESPONSE is handled here and cannot be registered.
+ *
+ * <p>Register all handlers before the first call to {@link #dispatch(byte[])}. Dispatching reuses
+ * a single {@link CommandApdu}, so instances are not thread-safe.
+ */
+public final class CommandDispatcher {
+
+    private static final long EMPTY = -1L;
+    // Keys of registrations that accept any P1/P2 live above the 32 bit CLA/INS/P1/P2 keys.
+    private static final long ANY_P1P2 = 1L << 32;
+
+    private final CommandApdu command = new CommandApdu();
+    private final byte[] unknownCommandResponse;
+    private final byte[] malformedCommandResponse;
+    private final byte[] noPendingResponse;
+
+    // Response whose data did not fit in the previous command's Ne, still to be fetched with
+    // GET RESPONSE.
+    private byte[] pendingResponse;
+    private int pendingOffset;
+
+    private long[] keys;
+    private CommandHandler[] handlers;
+    private int size;
+
+    /**
+     * @param unknownCommandResponse Response sent for commands without a handler
+     */
+    public CommandDispatcher(byte[] unknownCommandResponse) {
+        this.unknownCommandResponse = unknownCommandResponse;
+        this.malformedCommandResponse = ResponseApdu.statusWordBytes(Iso7816.SW_WRONG_LENGTH);
+        this.noPendingResponse =
+                ResponseApdu.statusWordBytes(Iso7816.SW_CONDITIONS_NOT_SATISFIED);
+        allocate(16);
+    }
+
+    /**
+     * Registers a handler for one CLA/INS/P1/P2 combination. It takes precedence over a
+     * handler registered for the same CLA/INS with {@link #register(int, int, CommandHandler)}.
+     */
+    public void register(int cla, int ins, int p1, int p2, CommandHandler handler) {
+        put(key(cla, ins, p1, p2), handler);
+    }
+
+    /**
+     * Registers a handler for a CLA/INS combination, with any P1/P2.
+     */
+    public void register(int cla, int ins, CommandHandler handler) {
+        put(ANY_P1P2 | key(cla, ins, 0, 0), handler);
+    }
+
+    /**
+     * Looks up the handler for a command.
+     *
+     * @return the handler, or null if no handler is registered for the command
+     */
+    public CommandHandler lookup(int cla, int ins, int p1, int p2) {
+        CommandHandler handler = get(key(cla, ins, p1, p2));
+        if (handler == null) {
+            handler = get(ANY_P1P2 | key(cla, ins, 0, 0));
+        }
+        return handler;
+    }
+
+    /**
+     * Parses a command and passes it to its handler.
+     *
+     * @param commandApdu The command APDU as received from the reader
+     * @return the response APDU; 0x6700 for malformed commands and the unknown command
+     * response for commands without a handler
+     */
+    public byte[] dispatch(byte[] commandApdu) {
+        if (!command.parse(commandApdu, 0, commandApdu.length)) {
+            pendingResponse = null;
+            return malformedCommandResponse;
+        }
+        if (command.getCla() == Iso7816.CLA_ISO && command.getIns() == Iso7816.INS_GET_RESPONSE) {
+            return nextChunk(command.getNe());
+        }
+        pendingResponse = null;
+        CommandHandler handler = lookup(command.getCla(), command.getIns(), command.getP1(),
+                command.getP2());
+        if (handler == null) {
+            return unknownCommandResponse;
+        }
+        byte[] response = handler.handle(command);
+        if (response.length - 2 <= maxChunk(command.getNe())) {
+            return response;
+        }
+        pendingResponse = response;
+        pendingOffset = 0;
+        return nextChunk(command.getNe());
+    }
+
+    /**
+     * Forgets a partially fetched response, e.g. when the link to the reader is lost.
+     */
+    public void reset() {
+        pendingResponse = null;
+    }
+
+    private static int maxChunk(int ne) {
+        return ne > 0 ? ne : Iso7816.MAX_SHORT_NE;
+    }
+
+    private byte[] nextChunk(int ne) {
+        byte[] response = pendingResponse;
+        if (response == null) {
+            return noPendingResponse;
+        }
+        int dataLength = response.length - 2;
+        int length = Math.min(dataLength - pendingOffset, maxChunk(ne));
+        int remaining = dataLength - pendingOffset - length;
+        int sw;
+        if (remaining > 0) {
+            sw = (Iso7816.SW1_BYTES_REMAINING << 8) | (remaining > 0xFF ? 0 : remaining);
+        } else {
+            sw = ResponseApdu.statusWord(response, 0, response.length);
+            pendingResponse = null;
+        }
+        byte[] chunk = new byte[length + 2];
+        ResponseApdu.encode(chunk, 0, response, pendingOffset, length, sw);
+        pendingOffset += length;
+        return chunk;
+    }
+
+    /**
+     * @return the number of registered handlers
+     */
+    public int size() {
+        return size;
+    }
+
+    private static long key(int cla, int ins, int p1, int p2) {
+        return ((cla & 0xFFL) << 24) | ((ins & 0xFF) << 16) | ((p1 & 0xFF) << 8) | (p2 & 0xFF);
+    }
+
+    private static int slot(long key, int mask) {
+        // Fibonacci hashing spreads keys that differ only in the upper (INS/CLA) bytes.
+        return (int) ((key * 0x9E3779B97F4A7C15L) >>> 40) & mask;
+    }
+
+    private CommandHandler get(long key) {
+        int mask = keys.length - 1;
+        for (int i = slot(key, mask); ; i = (i + 1) & mask) {
+            long k = keys[i];
+            if (k == key) {
+                return handlers[i];
+            }
+            if (k == EMPTY) {
+                return null;
+            }
+        }
+    }
+
+    private void put(long key, CommandHandler handler) {
+        if (handler == null) {
+            throw new IllegalArgumentException("handler == null");
+        }
+        // Keep the load factor at or below 1/2 so probe sequences stay short.
+        if ((size + 1) * 2 > keys.length) {
+            long[] oldKeys = keys;
+            CommandHandler[] oldHandlers = handlers;
+            allocate(keys.length * 2);
+            for (int i = 0; i < oldKeys.length; i++) {
+                if (oldKeys[i] != EMPTY) {
+                    insert(oldKeys[i], oldHandlers[i]);
+                }
+            }
+        }
+        insert(key, handler);
+    }
+
+    private void insert(long key, CommandHandler handler) {
+        int mask = keys.length - 1;
+        int i = slot(key, mask);
+        while (keys[i] != EMPTY && keys[i] != key) {
+            i = (i + 1) & mask;
+        }
+        if (keys[i] == EMPTY) {
+            size++;
+        }
+        keys[i] = key;
+        handlers[i] = handler;
+    }
+
+    private void allocate(int capacity) {
+        keys = new long[capacity];
+        handlers = new CommandHandler[capacity];
+        size = 0;
+        for (int i = 0; i < capacity; i++) {
+            keys[i] = EMPTY;
+        }
+    }
+}
@@ -0,0 +1,16 @@
+package com.barrysbeerbar.apdu;
+
+/**
+ * Handles one kind of command registered with a {@link CommandDispatcher}.
+ */
+public interface CommandHandler {
+
+    /**
+     * Processes a command. The command is only valid for the duration of the call.
+     *
+     * @param command The parsed command APDU
+     * @return the complete response APDU, including the status word. Returning a shared,
+     * precomputed array is allowed as long as nobody modifies it.
+     */
+    byte[] handle(CommandApdu command);
+}
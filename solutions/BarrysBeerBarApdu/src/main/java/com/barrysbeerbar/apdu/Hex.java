@@ -0,0 +1,132 @@
+package com.barrysbeerbar.apdu;
+
+/**
+ * Table-driven hexadecimal codec.
+ *
+ * <p>{@link #encode} and {@link #decode} work on caller-supplied buffers and do not allocate;
+ * {@link #toHexString} and {@link #toByteArray} allocate the result and are meant for logging
+ * and tests. Encoding produces upper case digits, decoding accepts both cases and rejects any
+ * other character in the same pass that converts the digits.
+ */
+public final class Hex {
+
+    // The two digits of byte b are at 2 * b and 2 * b + 1.
+    private static final char[] DIGIT_PAIRS = new char[512];
+    // Value of each ASCII character as a hex digit, -1 if it is none.
+    private static final byte[] DIGIT_VALUES = new byte[128];
+
+    static {
+        char[] digits = "0123456789ABCDEF".toCharArray();
+        for (int b = 0; b < 256; b++) {
+            DIGIT_PAIRS[2 * b] = digits[b >>> 4];
+            DIGIT_PAIRS[2 * b + 1] = digits[b & 0x0F];
+        }
+        for (int c = 0; c < DIGIT_VALUES.length; c++) {
+            DIGIT_VALUES[c] = (byte) Character.digit(c, 16);
+        }
+    }
+
+    private Hex() {
+    }
+
+    /**
+     * Writes two hex digits per byte into {@code dst}.
+     *
+     * @param src Bytes to convert
+     * @param offset Offset of the first byte to convert
+     * @param length Number of bytes to convert
+     * @param dst Buffer receiving {@code 2 * length} characters
+     * @param dstOffset Offset of the first character in {@code dst}
+     * @return the offset in {@code dst} after the last character written
+     */
+    public static int encode(byte[] src, int offset, int length, char[] dst, int dstOffset) {
+        for (int i = offset, end = offset + length; i < end; i++) {
+            int pair = (src[i] & 0xFF) << 1;
+            dst[dstOffset++] = DIGIT_PAIRS[pair];
+            dst[dstOffset++] = DIGIT_PAIRS[pair + 1];
+        }
+        return dstOffset;
+    }
+
+    /**
+     * Appends two hex digits per byte to {@code dst}.
+     *
+     * @return {@code dst}
+     */
+    public static StringBuilder encode(byte[] src, int offset, int length, StringBuilder dst) {
+        dst.ensureCapacity(dst.length() + 2 * length);
+        for (int i = offset, end = offset + length; i < end; i++) {
+            int pair = (src[i] & 0xFF) << 1;
+            dst.append(DIGIT_PAIRS[pair]).append(DIGIT_PAIRS[pair + 1]);
+        }
+        return dst;
+    }
+
+    /**
+     * Converts the hex digits {@code src[start, end)} into {@code dst}.
+     *
+     * @param dst Buffer receiving {@code (end - start) / 2} bytes
+     * @param dstOffset Offset of the first byte in {@code dst}
+     * @return the number of bytes written
+     * @throws IllegalArgumentException if the number of digits is odd or a character is not a hex
+     * digit; {@code dst} may then hold the bytes before it
+     */
+    public static int decode(CharSequence src, int start, int end, byte[] dst, int dstOffset)
+            throws IllegalArgumentException {
+        if (((end - start) & 1) != 0) {
+            throw new IllegalArgumentException("Hex string must have even number of characters");
+        }
+        for (int i = start; i < end; i += 2) {
+            int high = digitValue(src.charAt(i));
+            int low = digitValue(src.charAt(i + 1));
+            if ((high | low) < 0) {
+                throw new IllegalArgumentException("Not a hex digit at "
+                        + (high < 0 ? i : i + 1) + " in " + src);
+            }
+            dst[dstOffset++] = (byte) ((high << 4) | low);
+        }
+        return (end - start) / 2;
+    }
+
+    /**
+     * Utility method to convert a byte array to a hexadecimal string.
+     *
+     * @param bytes Bytes to convert
+     * @return String, containing hexadecimal representation.
+     */
+    public static String toHexString(byte[] bytes) {
+        return toHexString(bytes, 0, bytes.length);
+    }
+
+    /**
+     * Utility method to convert part of a byte array to a hexadecimal string.
+     *
+     * @param bytes Bytes to convert
+     * @param offset Offset of the first byte to convert
+     * @param length Number of bytes to convert
+     * @return String, containing hexadecimal representation.
+     */
+    public static String toHexString(byte[] bytes, int offset, int length) {
+        char[] hexChars = new char[length * 2];
+        encode(bytes, offset, length, hexChars, 0);
+        return new String(hexChars);
+    }
+
+    /**
+     * Utility method to convert a hexadecimal string to a byte string.
+     *
+     * @param s String containing hexadecimal characters to convert
+     * @return Byte array generated from input
+     * @throws java.lang.IllegalArgumentException if input length is incorrect or a character is
+     * not a hex digit
+     */
+    public static byte[] toByteArray(String s) throws IllegalArgumentException {
+        byte[] data = new byte[s.length() / 2];
+        decode(s, 0, s.length(), data, 0);
+        return data;
+    }
+
+    private static int digitValue(char c) {
+        return c < DIGIT_VALUES.length ? DIGIT_VALUES[c] : -1;
+    }
+}
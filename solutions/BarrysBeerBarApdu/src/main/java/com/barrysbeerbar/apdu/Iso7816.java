@@ -0,0 +1,56 @@
+package com.barrysbeerbar.apdu;
+
+/**
+ * Constants from ISO 7816-4 that are used by the card and the reader.
+ *
+ * <p>Status words are kept as {@code int}s (0x0000 - 0xFFFF) so they can be compared without
+ * allocating a two byte array.
+ */
+public final class Iso7816 {
+
+    // Class byte for interindustry commands without secure messaging or logical channels.
+    public static final int CLA_ISO = 0x00;
+
+    // Instruction bytes.
+    public static final int INS_SELECT = 0xA4;
+    public static final int INS_READ_BINARY = 0xB0;
+    public static final int INS_GET_RESPONSE = 0xC0;
+    public static final int INS_GET_DATA = 0xCA;
+    public static final int INS_UPDATE_BINARY = 0xD6;
+
+    // SELECT parameters: select by DF name (AID), first or only occurrence.
+    public static final int P1_SELECT_BY_NAME = 0x04;
+    public static final int P2_SELECT_FIRST = 0x00;
+
+    // GET DATA tag (P1-P2) of the cardholder name data object, see ISO 7816-6.
+    public static final int TAG_CARDHOLDER_NAME = 0x5F20;
+
+    // Status words.
+    public static final int SW_NO_ERROR = 0x9000;
+    // SW1 of "0xXX more response bytes available" (0x61XX) and "wrong Le, 0xXX bytes
+    // available" (0x6CXX); 0x00 stands for 256 or more.
+    public static final int SW1_BYTES_REMAINING = 0x61;
+    public static final int SW1_CORRECT_LE = 0x6C;
+    public static final int SW_WRONG_LENGTH = 0x6700;
+    public static final int SW_CONDITIONS_NOT_SATISFIED = 0x6985;
+    public static final int SW_WRONG_DATA = 0x6A80;
+    public static final int SW_FILE_NOT_FOUND = 0x6A82;
+    public static final int SW_DATA_NOT_FOUND = 0x6A88;
+    public static final int SW_WRONG_P1P2 = 0x6B00;
+    public static final int SW_INS_NOT_SUPPORTED = 0x6D00;
+    public static final int SW_CLA_NOT_SUPPORTED = 0x6E00;
+    public static final int SW_NO_PRECISE_DIAGNOSIS = 0x6F00;
+    // Not an ISO status word: this is what BarrysBeerBarCard has always answered to commands it
+    // does not know, so readers in the field already expect it.
+    public static final int SW_UNKNOWN = 0x0000;
+
+    // Maximum number of data bytes in a short APDU.
+    public static final int MAX_SHORT_NC = 255;
+    public static final int MAX_SHORT_NE = 256;
+    // Maximum number of data bytes in an extended length APDU.
+    public static final int MAX_EXTENDED_NC = 65535;
+    public static final int MAX_EXTENDED_NE = 65536;
+
+    private Iso7816() {
+    }
+}
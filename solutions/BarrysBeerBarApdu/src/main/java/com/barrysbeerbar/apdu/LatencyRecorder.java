@@ -0,0 +1,151 @@
+package com.barrysbeerbar.apdu;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock-free latency counters with a power-of-two histogram.
+ *
+ * <p>Bucket {@code i} counts latencies in [2^i, 2^(i+1)) nanoseconds (bucket 0 holds
+ * everything below 2 nanoseconds), so percentiles are reported as the upper bound of their
+ * bucket. Nanosecond buckets keep the sub-microsecond latencies of a desktop JVM apart, the
+ * last bucket starts at about 39 hours. Recording does not allocate and may be done from any
+ * thread.
+ */
+public final class LatencyRecorder {
+
+    private static final int BUCKETS = 48;
+
+    private final String name;
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong totalNanos = new AtomicLong();
+    private final AtomicLong maxNanos = new AtomicLong();
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+
+    public LatencyRecorder(String name) {
+        this.name = name;
+    }
+
+    /**
+     * Records the time elapsed since {@code startNanos}, as returned by {@link System#nanoTime()}.
+     */
+    public void recordSince(long startNanos) {
+        record(System.nanoTime() - startNanos);
+    }
+
+    public void record(long nanos) {
+        if (nanos < 0) {
+            nanos = 0;
+        }
+        count.incrementAndGet();
+        totalNanos.addAndGet(nanos);
+        long max = maxNanos.get();
+        while (nanos > max && !maxNanos.compareAndSet(max, nanos)) {
+            max = maxNanos.get();
+        }
+        buckets.incrementAndGet(bucket(nanos));
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public long getCount() {
+        return count.get();
+    }
+
+    public long getMeanNanos() {
+        long n = count.get();
+        return n == 0 ? 0 : totalNanos.get() / n;
+    }
+
+    public long getMaxNanos() {
+        return maxNanos.get();
+    }
+
+    /**
+     * @param percentile Percentile between 0 and 100, e.g. 99.9
+     * @return upper bound in nanoseconds of the bucket holding the percentile, at most the
+     * maximum, 0 if nothing was recorded
+     */
+    public long getPercentileNanos(double percentile) {
+        long n = 0;
+        long[] snapshot = new long[BUCKETS];
+        for (int i = 0; i < BUCKETS; i++) {
+            snapshot[i] = buckets.get(i);
+            n += snapshot[i];
+        }
+        if (n == 0) {
+            return 0;
+        }
+        long rank = (long) Math.ceil(percentile / 100.0 * n);
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += snapshot[i];
+            if (seen >= rank) {
+                return Math.min(1L << (i + 1), maxNanos.get());
+            }
+        }
+        return maxNanos.get();
+    }
+
+    public void reset() {
+        count.set(0);
+        totalNanos.set(0);
+        maxNanos.set(0);
+        for (int i = 0; i < BUCKETS; i++) {
+            buckets.set(i, 0);
+        }
+    }
+
+    /**
+     * Appends one line per non-empty histogram bucket, such as "  <=1024ns 5310 (98.2%)".
+     */
+    public StringBuilder appendHistogram(StringBuilder sb) {
+        long n = getCount();
+        for (int i = 0; i < BUCKETS; i++) {
+            long hits = buckets.get(i);
+            if (hits == 0) {
+                continue;
+            }
+            sb.append("  <=");
+            appendDuration(sb, 1L << (i + 1));
+            long permille = n == 0 ? 0 : hits * 1000 / n;
+            sb.append(' ').append(hits)
+                    .append(" (").append(permille / 10).append('.').append(permille % 10)
+                    .append("%)\n");
+        }
+        return sb;
+    }
+
+    /**
+     * @return a one line summary such as "sync: n=12 mean=350us p50<=512us p99<=1024us
+     * p999<=2048us max=1200us"; durations below 10 microseconds are given in nanoseconds
+     */
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder(name).append(": n=").append(getCount());
+        appendDuration(sb.append(" mean="), getMeanNanos());
+        appendDuration(sb.append(" p50<="), getPercentileNanos(50));
+        appendDuration(sb.append(" p99<="), getPercentileNanos(99));
+        appendDuration(sb.append(" p999<="), getPercentileNanos(99.9));
+        appendDuration(sb.append(" max="), getMaxNanos());
+        return sb.toString();
+    }
+
+    private static void appendDuration(StringBuilder sb, long nanos) {
+        if (nanos < 10000) {
+            sb.append(nanos).append("ns");
+        } else {
+            sb.append(nanos / 1000).append("us");
+        }
+    }
+
+    private static int bucket(long nanos) {
+        if (nanos <= 1) {
+            return 0;
+        }
+        int bucket = 63 - Long.numberOfLeadingZeros(nanos);
+        return bucket < BUCKETS ? bucket : BUCKETS - 1;
+    }
+}
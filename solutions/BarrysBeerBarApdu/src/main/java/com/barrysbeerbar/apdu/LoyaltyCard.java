@@ -0,0 +1,54 @@
+package com.barrysbeerbar.apdu;
+
+/**
+ * Protocol shared by the Barry's Beer Bar loyalty card (BarrysBeerBarCard) and the reader
+ * (BarrysBeerBarHce), on top of the ISO 7816-4 commands in {@link Iso7816}.
+ */
+public final class LoyaltyCard {
+
+    // AID for our loyalty card service (F222333222).
+    public static final byte[] AID = {(byte) 0xF2, 0x22, 0x33, 0x32, 0x22};
+    // SELECT of AID, without Le.
+    // Format: [CLASS | INSTRUCTION | PARAMETER 1 | PARAMETER 2 | LENGTH | DATA]
+    public static final byte[] SELECT_APDU = {
+            Iso7816.CLA_ISO, (byte) Iso7816.INS_SELECT, Iso7816.P1_SELECT_BY_NAME,
+            Iso7816.P2_SELECT_FIRST, 0x05, (byte) 0xF2, 0x22, 0x33, 0x32, 0x22};
+
+    // Class byte of the proprietary commands below.
+    public static final int CLA_PROPRIETARY = 0x80;
+    // Adds the value in the command data (one unsigned byte) to the order counter and returns
+    // the new count. Modelled after INCREASE from ETSI TS 102 221.
+    public static final int INS_INCREASE = 0x32;
+
+    // GET DATA tag (P1-P2) of the order counter, a 4 byte big endian value. Tags 0100 - 01FF are
+    // reserved for proprietary data objects.
+    public static final int TAG_ORDER_COUNT = 0x0101;
+    public static final int ORDER_COUNT_LENGTH = 4;
+
+    private LoyaltyCard() {
+    }
+
+    /**
+     * Reads an order count from a response.
+     */
+    public static int readOrderCount(ResponseApdu response) {
+        byte[] b = response.getBuffer();
+        int o = response.getDataOffset();
+        return ((b[o] & 0xFF) << 24) | ((b[o + 1] & 0xFF) << 16) | ((b[o + 2] & 0xFF) << 8)
+                | (b[o + 3] & 0xFF);
+    }
+
+    /**
+     * Writes an order count followed by 0x9000 into {@code dst}.
+     *
+     * @return the number of bytes written
+     */
+    public static int encodeOrderCount(byte[] dst, int offset, int count) {
+        dst[offset] = (byte) (count >>> 24);
+        dst[offset + 1] = (byte) (count >>> 16);
+        dst[offset + 2] = (byte) (count >>> 8);
+        dst[offset + 3] = (byte) count;
+        return ORDER_COUNT_LENGTH + ResponseApdu.encode(dst, offset + ORDER_COUNT_LENGTH,
+                Iso7816.SW_NO_ERROR);
+    }
+}
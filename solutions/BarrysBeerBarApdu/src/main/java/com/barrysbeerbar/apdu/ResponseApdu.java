@@ -0,0 +1,123 @@
+package com.barrysbeerbar.apdu;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Response APDU as defined by ISO 7816-4.
+ *
+ * <p>Format: [DATA | SW1 | SW2]
+ *
+ * <p>Like {@link CommandApdu}, instances are reusable views on the buffer they were parsed from:
+ * the response data is not copied. Instances are not thread-safe.
+ */
+public final class ResponseApdu {
+
+    private byte[] buffer;
+    private int dataOffset;
+    private int dataLength;
+    private int sw;
+
+    /**
+     * Parses a response APDU.
+     *
+     * @param apdu Buffer holding the response
+     * @param offset Offset of the first response byte
+     * @param length Number of bytes in the response, including the status word
+     * @return true if the response holds at least a status word
+     */
+    public boolean parse(byte[] apdu, int offset, int length) {
+        if (apdu == null || length < 2) {
+            return false;
+        }
+        buffer = apdu;
+        dataOffset = offset;
+        dataLength = length - 2;
+        sw = statusWord(apdu, offset, length);
+        return true;
+    }
+
+    /**
+     * Convenience for {@code parse(apdu, 0, apdu.length)}.
+     */
+    public boolean parse(byte[] apdu) {
+        return apdu != null && parse(apdu, 0, apdu.length);
+    }
+
+    public byte[] getBuffer() {
+        return buffer;
+    }
+
+    public int getDataOffset() {
+        return dataOffset;
+    }
+
+    public int getDataLength() {
+        return dataLength;
+    }
+
+    public int getSw() {
+        return sw;
+    }
+
+    public int getSw1() {
+        return sw >>> 8;
+    }
+
+    public int getSw2() {
+        return sw & 0xFF;
+    }
+
+    public boolean isOk() {
+        return sw == Iso7816.SW_NO_ERROR;
+    }
+
+    /**
+     * Reads the status word (the last 2 bytes) of a response.
+     *
+     * @return the status word as an unsigned value
+     */
+    public static int statusWord(byte[] apdu, int offset, int length) {
+        int end = offset + length;
+        return ((apdu[end - 2] & 0xFF) << 8) | (apdu[end - 1] & 0xFF);
+    }
+
+    /**
+     * Writes a response consisting of only a status word.
+     *
+     * @return the number of bytes written
+     */
+    public static int encode(byte[] dst, int offset, int sw) {
+        dst[offset] = (byte) (sw >>> 8);
+        dst[offset + 1] = (byte) sw;
+        return 2;
+    }
+
+    /**
+     * Writes {@code data} followed by the status word into {@code dst}.
+     *
+     * @return the number of bytes written
+     */
+    public static int encode(byte[] dst, int offset, byte[] data, int dataOffset, int dataLength,
+                             int sw) {
+        System.arraycopy(data, dataOffset, dst, offset, dataLength);
+        return dataLength + encode(dst, offset + dataLength, sw);
+    }
+
+    /**
+     * Writes {@code data} followed by the status word at the position of {@code dst} and advances
+     * the position.
+     */
+    public static void encode(ByteBuffer dst, byte[] data, int dataOffset, int dataLength,
+                              int sw) {
+        dst.put(data, dataOffset, dataLength).put((byte) (sw >>> 8)).put((byte) sw);
+    }
+
+    /**
+     * Builds a response holding only a status word. Intended for constants.
+     */
+    public static byte[] statusWordBytes(int sw) {
+        byte[] apdu = new byte[2];
+        encode(apdu, 0, sw);
+        return apdu;
+    }
+}
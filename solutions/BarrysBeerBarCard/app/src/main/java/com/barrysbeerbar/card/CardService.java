@@ -16,12 +16,24 @@
 
 package com.barrysbeerbar.card;
 
+import android.content.SharedPreferences;
 import android.nfc.cardemulation.HostApduService;
 import android.os.Bundle;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Process;
 import android.util.Log;
 
+import com.barrysbeerbar.apdu.ApduTrace;
+import com.barrysbeerbar.apdu.Iso7816;
+import com.barrysbeerbar.apdu.LatencyRecorder;
+import com.barrysbeerbar.apdu.LoyaltyCard;
+import com.barrysbeerbar.apdu.ResponseApdu;
+import com.barrysbeerbar.applet.CardApplet;
+import com.barrysbeerbar.applet.CardStore;
 
-import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * This is a sample APDU Service which demonstrates how to interface with the card emulation support
@@ -39,18 +51,74 @@ import java.util.Arrays;
  * byte-array based communication channel. It is left to developers to implement higher level
  * protocol support as needed.
  */
-public class CardService extends HostApduService {
+public class CardService extends HostApduService
+        implements SharedPreferences.OnSharedPreferenceChangeListener {
     private static final String TAG = "CardService";
-    // AID for our loyalty card service.
-    private static final String AID = "F222333222";
-    // ISO-DEP command HEADER for selecting an AID.
-    // Format: [Class | Instruction | Parameter 1 | Parameter 2]
-    private static final String SELECT_APDU_HEADER = "00A40400";
-    // "OK" status word sent in response to SELECT AID command (0x9000)
-    private static final byte[] SELECT_OK_SW = HexStringToByteArray("9000");
-    // "UNKNOWN" status word sent in response to invalid APDU command (0x0000)
-    private static final byte[] UNKNOWN_CMD_SW = HexStringToByteArray("0000");
-    private static final byte[] SELECT_APDU = BuildSelectApdu(AID);
+    // Status word sent in asynchronous mode when a command misses its deadline (0x6F00)
+    private static final byte[] DEADLINE_MISSED_SW =
+            ResponseApdu.statusWordBytes(Iso7816.SW_NO_PRECISE_DIAGNOSIS);
+
+    // Kept as a field: SharedPreferences only holds weak references to its listeners.
+    private SharedPreferences preferences;
+    // The APDU handling itself, see BarrysBeerBarCardApplet. Caches the card holder name and the
+    // SELECT response, rebuilt on the main thread when the name changes, so processCommandApdu
+    // never touches the preferences.
+    private CardApplet applet;
+
+    // Asynchronous mode: commands are dispatched on the worker thread and answered with
+    // sendResponseApdu. The applet is then only used from that thread.
+    private boolean asyncProcessing;
+    private long responseDeadlineMillis;
+    private HandlerThread workerThread;
+    private Handler worker;
+    private Handler mainHandler;
+
+    private final LatencyRecorder syncLatency = new LatencyRecorder("sync");
+    private final LatencyRecorder asyncLatency = new LatencyRecorder("async");
+    private final AtomicLong missedDeadlines = new AtomicLong();
+    // Last exchanged APDUs, dumped to logcat on deactivation when debug logging is enabled for
+    // this tag (adb shell setprop log.tag.CardService DEBUG).
+    private final ApduTrace trace = new ApduTrace(64, 64);
+
+    @Override
+    public void onCreate() {
+        super.onCreate();
+        applet = new CardApplet(cardStore, LoyaltyCard.AID);
+
+        asyncProcessing = getResources().getBoolean(R.bool.async_apdu_processing);
+        if (asyncProcessing) {
+            responseDeadlineMillis = getResources().getInteger(R.integer.apdu_response_deadline_ms);
+            workerThread = new HandlerThread("ApduWorker", Process.THREAD_PRIORITY_FOREGROUND);
+            workerThread.start();
+            worker = new Handler(workerThread.getLooper());
+            mainHandler = new Handler();
+        }
+
+        preferences = CardStorage.getPreferences(this);
+        preferences.registerOnSharedPreferenceChangeListener(this);
+        applet.setCardHolderName(CardStorage.getCardHolderName(preferences));
+        applet.setOrderCount(CardStorage.getOrderCount(preferences));
+    }
+
+    @Override
+    public void onDestroy() {
+        preferences.unregisterOnSharedPreferenceChangeListener(this);
+        if (asyncProcessing) {
+            mainHandler.removeCallbacksAndMessages(null);
+            workerThread.quit();
+        }
+        logLatency();
+        super.onDestroy();
+    }
+
+    @Override
+    public void onSharedPreferenceChanged(SharedPreferences sharedPreferences, String key) {
+        if (CardStorage.CARD_HOLDER_NAME.equals(key)) {
+            applet.setCardHolderName(CardStorage.getCardHolderName(sharedPreferences));
+        } else if (CardStorage.ORDER_COUNT.equals(key)) {
+            applet.setOrderCount(CardStorage.getOrderCount(sharedPreferences));
+        }
+    }
 
     /**
      * Called if the connection to the NFC card is lost, in order to let the application know the
@@ -60,7 +128,39 @@ public class CardService extends HostApduService {
      * @param reason Either DEACTIVATION_LINK_LOSS or DEACTIVATION_DESELECTED
      */
     @Override
-    public void onDeactivated(int reason) { }
+    public void onDeactivated(int reason) {
+        if (asyncProcessing) {
+            worker.post(deselect);
+        } else {
+            deselect.run();
+        }
+        logLatency();
+        if (Log.isLoggable(TAG, Log.DEBUG)) {
+            Log.d(TAG, "APDU trace:\n" + trace.dump());
+            trace.clear();
+        }
+    }
+
+    private final Runnable deselect = new Runnable() {
+        @Override
+        public void run() {
+            applet.onDeactivated();
+        }
+    };
+
+    // Writes made by the applet (UPDATE BINARY, INCREASE) go to the preferences; apply() does not
+    // block the APDU thread.
+    private final CardStore cardStore = new CardStore() {
+        @Override
+        public void storeCardHolderName(String cardHolderName) {
+            CardStorage.setCardHolderName(getApplicationContext(), cardHolderName);
+        }
+
+        @Override
+        public void storeOrderCount(int orderCount) {
+            CardStorage.setOrderCount(getApplicationContext(), orderCount);
+        }
+    };
 
     /**
      * This method will be called when a command APDU has been received from a remote device. A
@@ -84,90 +184,68 @@ public class CardService extends HostApduService {
     // BEGIN_INCLUDE(processCommandApdu)
     @Override
     public byte[] processCommandApdu(byte[] commandApdu, Bundle extras) {
-        Log.i(TAG, "Received APDU: " + ByteArrayToHexString(commandApdu));
-        // If the APDU matches the SELECT AID command for this service,
-        // send the loyalty card account number, followed by a SELECT_OK status trailer (0x9000).
-        if (Arrays.equals(SELECT_APDU, commandApdu)) {
-            String cardHolderName = CardStorage.getCardHolderName(this);
-            byte[] accountBytes = cardHolderName.getBytes();
-            return ConcatArrays(accountBytes, SELECT_OK_SW);
-        } else {
-            return UNKNOWN_CMD_SW;
+        long startNanos = System.nanoTime();
+        trace.record(ApduTrace.RECEIVED, commandApdu);
+        if (asyncProcessing) {
+            PendingCommand pending = new PendingCommand(commandApdu, startNanos);
+            worker.post(pending);
+            mainHandler.postDelayed(pending.deadline, responseDeadlineMillis);
+            return null;
         }
+        // Look up the handler by CLA/INS/P1/P2. A SELECT of this service's AID answers with the
+        // loyalty card account number, followed by a SELECT_OK status trailer (0x9000); see
+        // CardCommands for the other commands.
+        byte[] response = applet.processCommandApdu(commandApdu);
+        syncLatency.recordSince(startNanos);
+        trace.record(ApduTrace.SENT, response);
+        return response;
     }
     // END_INCLUDE(processCommandApdu)
 
-    /**
-     * Build APDU for SELECT AID command. This command indicates which service a reader is
-     * interested in communicating with. See ISO 7816-4.
-     *
-     * @param aid Application ID (AID) to select
-     * @return APDU for SELECT AID command
-     */
-    public static byte[] BuildSelectApdu(String aid) {
-        // Format: [CLASS | INSTRUCTION | PARAMETER 1 | PARAMETER 2 | LENGTH | DATA]
-        return HexStringToByteArray(SELECT_APDU_HEADER + String.format("%02X",
-                aid.length() / 2) + aid);
+    private void logLatency() {
+        Log.i(TAG, syncLatency + ", " + asyncLatency + ", missed deadlines: " + missedDeadlines);
     }
 
     /**
-     * Utility method to convert a byte array to a hexadecimal string.
-     *
-     * @param bytes Bytes to convert
-     * @return String, containing hexadecimal representation.
+     * A command handed to the worker thread in asynchronous mode. Whichever comes first, the
+     * worker starting on the command or the deadline, answers the reader. A command the deadline
+     * answered with 0x6F00 is never run, so INCREASE or UPDATE BINARY cannot change the card
+     * after the reader was told they failed; once the worker has started, the deadline no longer
+     * applies and the handler's response is sent however long it takes.
      */
-    public static String ByteArrayToHexString(byte[] bytes) {
-        final char[] hexArray = {'0','1','2','3','4','5','6','7','8','9','A','B','C','D','E','F'};
-        char[] hexChars = new char[bytes.length * 2]; // Each byte has two hex characters (nibbles)
-        int v;
-        for (int j = 0; j < bytes.length; j++) {
-            v = bytes[j] & 0xFF; // Cast bytes[j] to int, treating as unsigned value
-            hexChars[j * 2] = hexArray[v >>> 4]; // Select hex character from upper nibble
-            hexChars[j * 2 + 1] = hexArray[v & 0x0F]; // Select hex character from lower nibble
-        }
-        return new String(hexChars);
-    }
+    private final class PendingCommand implements Runnable {
+        private final byte[] commandApdu;
+        private final long startNanos;
+        private final AtomicBoolean claimed = new AtomicBoolean();
 
-    /**
-     * Utility method to convert a hexadecimal string to a byte string.
-     *
-     * <p>Behavior with input strings containing non-hexadecimal characters is undefined.
-     *
-     * @param s String containing hexadecimal characters to convert
-     * @return Byte array generated from input
-     * @throws java.lang.IllegalArgumentException if input length is incorrect
-     */
-    public static byte[] HexStringToByteArray(String s) throws IllegalArgumentException {
-        int len = s.length();
-        if (len % 2 == 1) {
-            throw new IllegalArgumentException("Hex string must have even number of characters");
-        }
-        byte[] data = new byte[len / 2]; // Allocate 1 byte per 2 hex characters
-        for (int i = 0; i < len; i += 2) {
-            // Convert each character into a integer (base-16), then bit-shift into place
-            data[i / 2] = (byte) ((Character.digit(s.charAt(i), 16) << 4)
-                    + Character.digit(s.charAt(i + 1), 16));
+        final Runnable deadline = new Runnable() {
+            @Override
+            public void run() {
+                if (claimed.compareAndSet(false, true)) {
+                    missedDeadlines.incrementAndGet();
+                    answer(DEADLINE_MISSED_SW);
+                }
+            }
+        };
+
+        PendingCommand(byte[] commandApdu, long startNanos) {
+            this.commandApdu = commandApdu;
+            this.startNanos = startNanos;
         }
-        return data;
-    }
 
-    /**
-     * Utility method to concatenate two byte arrays.
-     * @param first First array
-     * @param rest Any remaining arrays
-     * @return Concatenated copy of input arrays
-     */
-    public static byte[] ConcatArrays(byte[] first, byte[]... rest) {
-        int totalLength = first.length;
-        for (byte[] array : rest) {
-            totalLength += array.length;
+        @Override
+        public void run() {
+            if (!claimed.compareAndSet(false, true)) {
+                return;
+            }
+            mainHandler.removeCallbacks(deadline);
+            answer(applet.processCommandApdu(commandApdu));
         }
-        byte[] result = Arrays.copyOf(first, totalLength);
-        int offset = first.length;
-        for (byte[] array : rest) {
-            System.arraycopy(array, 0, result, offset, array.length);
-            offset += array.length;
+
+        private void answer(byte[] response) {
+            sendResponseApdu(response);
+            asyncLatency.recordSince(startNanos);
+            trace.record(ApduTrace.SENT, response);
         }
-        return result;
     }
 }
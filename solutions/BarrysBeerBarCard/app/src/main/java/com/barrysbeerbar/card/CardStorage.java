@@ -7,16 +7,35 @@ public final class CardStorage {
 
     public static final String BARRYS_BEER_BAR_PREFERENCES = "BarrysBeerBarPreferences";
     public static final String CARD_HOLDER_NAME = "cardHolderName";
+    public static final String ORDER_COUNT = "orderCount";
+
+    public static SharedPreferences getPreferences(Context context) {
+        return context.getSharedPreferences(BARRYS_BEER_BAR_PREFERENCES, Context.MODE_PRIVATE);
+    }
 
     public static String getCardHolderName(Context context) {
-        SharedPreferences sharedPreferences = context.getSharedPreferences(BARRYS_BEER_BAR_PREFERENCES, Context.MODE_PRIVATE);
+        return getCardHolderName(getPreferences(context));
+    }
+
+    public static String getCardHolderName(SharedPreferences sharedPreferences) {
         return sharedPreferences.getString(CARD_HOLDER_NAME, "");
     }
 
     public static void setCardHolderName(Context context, String cardHolderName) {
-        SharedPreferences sharedPreferences = context.getSharedPreferences(BARRYS_BEER_BAR_PREFERENCES, Context.MODE_PRIVATE);
+        SharedPreferences sharedPreferences = getPreferences(context);
         SharedPreferences.Editor editor = sharedPreferences.edit();
         editor.putString(CARD_HOLDER_NAME, cardHolderName);
         editor.apply();
     }
+
+    public static int getOrderCount(SharedPreferences sharedPreferences) {
+        return sharedPreferences.getInt(ORDER_COUNT, 0);
+    }
+
+    public static void setOrderCount(Context context, int orderCount) {
+        SharedPreferences sharedPreferences = getPreferences(context);
+        SharedPreferences.Editor editor = sharedPreferences.edit();
+        editor.putInt(ORDER_COUNT, orderCount);
+        editor.apply();
+    }
 }
@@ -0,0 +1,60 @@
+package com.barrysbeerbar.applet;
+
+import com.barrysbeerbar.apdu.CommandDispatcher;
+import com.barrysbeerbar.apdu.Iso7816;
+import com.barrysbeerbar.apdu.ResponseApdu;
+
+/**
+ * The loyalty card application, independent of HostApduService.
+ *
+ * <p>Dispatches command APDUs to the {@link CardCommands} and forgets the selection and any
+ * pending response chain when the link to the reader is deactivated. BarrysBeerBarCard's
+ * CardService forwards its callbacks here; on a desktop JVM the
+ * {@link com.barrysbeerbar.applet.bench.VirtualReader} does.
+ *
+ * <p>Not thread safe: all calls must come from the same thread, or be otherwise serialized,
+ * except {@link #setCardHolderName(String)} and {@link #setOrderCount(int)}.
+ */
+public final class CardApplet {
+
+    // "UNKNOWN" status word sent in response to invalid APDU command (0x0000)
+    private static final byte[] UNKNOWN_CMD_SW = ResponseApdu.statusWordBytes(Iso7816.SW_UNKNOWN);
+
+    private final CardCommands commands;
+    private final CommandDispatcher dispatcher = new CommandDispatcher(UNKNOWN_CMD_SW);
+
+    public CardApplet(CardStore store, byte[] aid) {
+        commands = new CardCommands(store, aid);
+        commands.register(dispatcher);
+    }
+
+    /**
+     * @param commandApdu The APDU received from the reader
+     * @return the response APDU, never null
+     */
+    public byte[] processCommandApdu(byte[] commandApdu) {
+        return dispatcher.dispatch(commandApdu);
+    }
+
+    /**
+     * Called when the link to the reader is lost or another AID is selected.
+     */
+    public void onDeactivated() {
+        commands.deselect();
+        dispatcher.reset();
+    }
+
+    /**
+     * Updates the cached card holder name. May be called from any thread.
+     */
+    public void setCardHolderName(String cardHolderName) {
+        commands.setCardHolderName(cardHolderName);
+    }
+
+    /**
+     * Updates the cached order counter. May be called from any thread.
+     */
+    public void setOrderCount(int orderCount) {
+        commands.setOrderCount(orderCount);
+    }
+}
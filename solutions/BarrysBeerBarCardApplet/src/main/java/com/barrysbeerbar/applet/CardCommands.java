@@ -0,0 +1,202 @@
+package com.barrysbeerbar.applet;
+
+import com.barrysbeerbar.apdu.CommandApdu;
+import com.barrysbeerbar.apdu.CommandDispatcher;
+import com.barrysbeerbar.apdu.CommandHandler;
+import com.barrysbeerbar.apdu.Iso7816;
+import com.barrysbeerbar.apdu.LoyaltyCard;
+import com.barrysbeerbar.apdu.ResponseApdu;
+
+/**
+ * Commands served by the loyalty card, backed by a {@link CardStore}.
+ *
+ * <p>The card holds a transparent file containing the card holder name and an order counter:
+ * <ul>
+ *     <li>SELECT (00 A4 04 00) selects the loyalty card AID and returns the name.</li>
+ *     <li>READ BINARY (00 B0) reads the name from offset P1-P2.</li>
+ *     <li>UPDATE BINARY (00 D6) overwrites the name from offset P1-P2.</li>
+ *     <li>GET DATA (00 CA 5F 20) returns the name as cardholder name data object.</li>
+ *     <li>GET DATA (00 CA 01 01) returns the order counter.</li>
+ *     <li>INCREASE (80 32 00 00) adds to the order counter and returns the new count.</li>
+ * </ul>
+ * All commands but SELECT require the AID to be selected first.
+ *
+ * <p>The name, the SELECT response and the order counter are cached and only rebuilt through
+ * {@link #setCardHolderName(String)} and {@link #setOrderCount(int)}, so the handlers never touch
+ * the store when reading.
+ */
+public final class CardCommands {
+
+    // "OK" status word sent in response to SELECT AID command (0x9000)
+    private static final byte[] SELECT_OK_SW = {(byte) 0x90, 0x00};
+    private static final byte[] FILE_NOT_FOUND_SW =
+            ResponseApdu.statusWordBytes(Iso7816.SW_FILE_NOT_FOUND);
+    private static final byte[] DATA_NOT_FOUND_SW =
+            ResponseApdu.statusWordBytes(Iso7816.SW_DATA_NOT_FOUND);
+    private static final byte[] NOT_SELECTED_SW =
+            ResponseApdu.statusWordBytes(Iso7816.SW_CONDITIONS_NOT_SATISFIED);
+    private static final byte[] WRONG_P1P2_SW = ResponseApdu.statusWordBytes(Iso7816.SW_WRONG_P1P2);
+    private static final byte[] WRONG_LENGTH_SW =
+            ResponseApdu.statusWordBytes(Iso7816.SW_WRONG_LENGTH);
+
+    // The file must stay addressable by a short READ BINARY.
+    private static final int MAX_FILE_SIZE = 0x7FFF;
+
+    private final CardStore store;
+    private final byte[] aid;
+
+    private volatile byte[] cardHolderName = new byte[0];
+    // Complete response to SELECT (card holder name + 0x9000).
+    private volatile byte[] selectResponse = SELECT_OK_SW;
+    private volatile int orderCount;
+    private boolean selected;
+
+    public CardCommands(CardStore store, byte[] aid) {
+        this.store = store;
+        this.aid = aid;
+    }
+
+    /**
+     * Registers the handlers of all commands with {@code dispatcher}.
+     */
+    public void register(CommandDispatcher dispatcher) {
+        dispatcher.register(Iso7816.CLA_ISO, Iso7816.INS_SELECT, Iso7816.P1_SELECT_BY_NAME,
+                Iso7816.P2_SELECT_FIRST, selectHandler);
+        dispatcher.register(Iso7816.CLA_ISO, Iso7816.INS_READ_BINARY, readBinaryHandler);
+        dispatcher.register(Iso7816.CLA_ISO, Iso7816.INS_UPDATE_BINARY, updateBinaryHandler);
+        dispatcher.register(Iso7816.CLA_ISO, Iso7816.INS_GET_DATA,
+                Iso7816.TAG_CARDHOLDER_NAME >>> 8, Iso7816.TAG_CARDHOLDER_NAME & 0xFF,
+                getDataHandler);
+        dispatcher.register(Iso7816.CLA_ISO, Iso7816.INS_GET_DATA,
+                LoyaltyCard.TAG_ORDER_COUNT >>> 8, LoyaltyCard.TAG_ORDER_COUNT & 0xFF,
+                getOrderCountHandler);
+        dispatcher.register(Iso7816.CLA_ISO, Iso7816.INS_GET_DATA, unknownDataHandler);
+        dispatcher.register(LoyaltyCard.CLA_PROPRIETARY, LoyaltyCard.INS_INCREASE, 0, 0,
+                increaseHandler);
+    }
+
+    /**
+     * Rebuilds the cached name and SELECT response. Call whenever the stored name changes.
+     */
+    public void setCardHolderName(String name) {
+        byte[] nameBytes = name.getBytes();
+        byte[] response = new byte[nameBytes.length + 2];
+        ResponseApdu.encode(response, 0, nameBytes, 0, nameBytes.length, Iso7816.SW_NO_ERROR);
+        cardHolderName = nameBytes;
+        selectResponse = response;
+    }
+
+    /**
+     * Updates the cached order counter. Call whenever the stored counter changes.
+     */
+    public void setOrderCount(int orderCount) {
+        this.orderCount = orderCount;
+    }
+
+    /**
+     * Forgets the selected application, e.g. when the link to the reader is lost.
+     */
+    public void deselect() {
+        selected = false;
+    }
+
+    private final CommandHandler selectHandler = new CommandHandler() {
+        @Override
+        public byte[] handle(CommandApdu command) {
+            selected = command.dataEquals(aid);
+            return selected ? selectResponse : FILE_NOT_FOUND_SW;
+        }
+    };
+
+    private final CommandHandler readBinaryHandler = new CommandHandler() {
+        @Override
+        public byte[] handle(CommandApdu command) {
+            if (!selected) {
+                return NOT_SELECTED_SW;
+            }
+            byte[] file = cardHolderName;
+            int offset = command.getP1P2();
+            if (offset > file.length) {
+                return WRONG_P1P2_SW;
+            }
+            int length = Math.min(file.length - offset, command.getNe());
+            byte[] response = new byte[length + 2];
+            ResponseApdu.encode(response, 0, file, offset, length, Iso7816.SW_NO_ERROR);
+            return response;
+        }
+    };
+
+    private final CommandHandler updateBinaryHandler = new CommandHandler() {
+        @Override
+        public byte[] handle(CommandApdu command) {
+            if (!selected) {
+                return NOT_SELECTED_SW;
+            }
+            byte[] file = cardHolderName;
+            int offset = command.getP1P2();
+            if (offset > file.length) {
+                return WRONG_P1P2_SW;
+            }
+            int end = offset + command.getNc();
+            if (command.getNc() == 0 || end > MAX_FILE_SIZE) {
+                return WRONG_LENGTH_SW;
+            }
+            byte[] updated = new byte[Math.max(file.length, end)];
+            System.arraycopy(file, 0, updated, 0, file.length);
+            System.arraycopy(command.getBuffer(), command.getDataOffset(), updated, offset,
+                    command.getNc());
+            String name = new String(updated);
+            // Update the cache right away so a following READ BINARY in the same session sees
+            // the new name; the store may rebuild it once more when it changes.
+            setCardHolderName(name);
+            store.storeCardHolderName(name);
+            return SELECT_OK_SW;
+        }
+    };
+
+    private final CommandHandler getDataHandler = new CommandHandler() {
+        @Override
+        public byte[] handle(CommandApdu command) {
+            return selected ? selectResponse : NOT_SELECTED_SW;
+        }
+    };
+
+    private final CommandHandler unknownDataHandler = new CommandHandler() {
+        @Override
+        public byte[] handle(CommandApdu command) {
+            return selected ? DATA_NOT_FOUND_SW : NOT_SELECTED_SW;
+        }
+    };
+
+    private final CommandHandler getOrderCountHandler = new CommandHandler() {
+        @Override
+        public byte[] handle(CommandApdu command) {
+            if (!selected) {
+                return NOT_SELECTED_SW;
+            }
+            byte[] response = new byte[LoyaltyCard.ORDER_COUNT_LENGTH + 2];
+            LoyaltyCard.encodeOrderCount(response, 0, orderCount);
+            return response;
+        }
+    };
+
+    private final CommandHandler increaseHandler = new CommandHandler() {
+        @Override
+        public byte[] handle(CommandApdu command) {
+            if (!selected) {
+                return NOT_SELECTED_SW;
+            }
+            if (command.getNc() != 1) {
+                return WRONG_LENGTH_SW;
+            }
+            int count = orderCount + (command.getBuffer()[command.getDataOffset()] & 0xFF);
+            // Same as for UPDATE BINARY: the cache is updated first so a following GET DATA
+            // already sees the new count.
+            orderCount = count;
+            store.storeOrderCount(count);
+            byte[] response = new byte[LoyaltyCard.ORDER_COUNT_LENGTH + 2];
+            LoyaltyCard.encodeOrderCount(response, 0, count);
+            return response;
+        }
+    };
+}
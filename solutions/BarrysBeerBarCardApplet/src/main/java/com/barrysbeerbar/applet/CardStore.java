@@ -0,0 +1,16 @@
+package com.barrysbeerbar.applet;
+
+/**
+ * Persists the loyalty card file for {@link CardCommands}.
+ *
+ * <p>Called from the thread processing the APDU, so implementations should hand the write off
+ * (e.g. SharedPreferences.Editor.apply()) rather than block. Values are not read back through
+ * this interface: the owner of the store pushes the stored values, and later changes, to
+ * {@link CardApplet#setCardHolderName(String)} and {@link CardApplet#setOrderCount(int)}.
+ */
+public interface CardStore {
+
+    void storeCardHolderName(String cardHolderName);
+
+    void storeOrderCount(int orderCount);
+}
@@ -0,0 +1,160 @@
+package com.barrysbeerbar.applet.bench;
+
+import com.barrysbeerbar.apdu.CommandApdu;
+import com.barrysbeerbar.apdu.Iso7816;
+import com.barrysbeerbar.apdu.LoyaltyCard;
+import com.barrysbeerbar.applet.CardApplet;
+import com.barrysbeerbar.applet.CardStore;
+
+import java.util.Arrays;
+
+/**
+ * Regression benchmark of the card side: replays the sessions BarrysBeerBarCard sees from the
+ * reader with {@link VirtualReader}s and reports the latency and allocations per APDU.
+ *
+ * <p>Each session runs against its own {@link CardApplet}, backed by a store that only keeps the
+ * values in memory, so the numbers cover the APDU handling and not the preferences.
+ *
+ * <pre>
+ * CardBenchmark [rounds] [warmupRounds] [histograms]
+ * </pre>
+ * The defaults are 100000 rounds after 20000 warm-up rounds, without histograms. From Gradle:
+ * {@code gradlew :BarrysBeerBarCardApplet:run -PbenchArgs="100000 20000 histograms"}.
+ */
+public final class CardBenchmark {
+
+    private static final String CARD_HOLDER_NAME = "Barry";
+
+    private static final byte[] SELECT_APDU = LoyaltyCard.SELECT_APDU;
+    private static final byte[] SELECT_OTHER_APDU =
+            CommandApdu.buildSelectApdu(new byte[]{(byte) 0xF2, 0x22, 0x33, 0x32, 0x21});
+    private static final byte[] GET_ORDER_COUNT_APDU = new CommandApdu()
+            .set(Iso7816.CLA_ISO, Iso7816.INS_GET_DATA, LoyaltyCard.TAG_ORDER_COUNT >>> 8,
+                    LoyaltyCard.TAG_ORDER_COUNT & 0xFF, new byte[0], 0, 0,
+                    LoyaltyCard.ORDER_COUNT_LENGTH)
+            .toByteArray();
+    private static final byte[] INCREASE_ORDER_COUNT_APDU = new CommandApdu()
+            .set(LoyaltyCard.CLA_PROPRIETARY, LoyaltyCard.INS_INCREASE, 0, 0, new byte[]{1}, 0, 1,
+                    LoyaltyCard.ORDER_COUNT_LENGTH)
+            .toByteArray();
+    private static final byte[] GET_NAME_APDU = new CommandApdu()
+            .set(Iso7816.CLA_ISO, Iso7816.INS_GET_DATA, Iso7816.TAG_CARDHOLDER_NAME >>> 8,
+                    Iso7816.TAG_CARDHOLDER_NAME & 0xFF)
+            .toByteArray();
+    private static final byte[] READ_BINARY_APDU = new CommandApdu()
+            .set(Iso7816.CLA_ISO, Iso7816.INS_READ_BINARY, 0, 0, new byte[0], 0, 0,
+                    Iso7816.MAX_SHORT_NE)
+            .toByteArray();
+    private static final byte[] UPDATE_BINARY_APDU = new CommandApdu()
+            .set(Iso7816.CLA_ISO, Iso7816.INS_UPDATE_BINARY, 0, 0, CARD_HOLDER_NAME.getBytes(), 0,
+                    CARD_HOLDER_NAME.length(), 0)
+            .toByteArray();
+    private static final byte[] GET_RESPONSE_APDU = new CommandApdu()
+            .set(Iso7816.CLA_ISO, Iso7816.INS_GET_RESPONSE, 0, 0, new byte[0], 0, 0,
+                    Iso7816.MAX_SHORT_NE)
+            .toByteArray();
+    private static final byte[] UNKNOWN_APDU =
+            new CommandApdu().set(Iso7816.CLA_ISO, 0x10, 0, 0).toByteArray();
+
+    private CardBenchmark() {
+    }
+
+    public static void main(String[] args) {
+        int rounds = args.length > 0 ? Integer.parseInt(args[0]) : 100000;
+        int warmupRounds = args.length > 1 ? Integer.parseInt(args[1]) : 20000;
+        boolean histograms = args.length > 2 && "histograms".equals(args[2]);
+
+        // 600 bytes: the SELECT response is chained over three APDUs of at most 256 bytes.
+        char[] longName = new char[600];
+        Arrays.fill(longName, 'B');
+
+        run(orderSession(), CARD_HOLDER_NAME, rounds, warmupRounds, histograms);
+        run(registrationSession(), CARD_HOLDER_NAME, rounds, warmupRounds, histograms);
+        run(chainedSession(), new String(longName), rounds, warmupRounds, histograms);
+        run(rejectedSession(), CARD_HOLDER_NAME, rounds, warmupRounds, histograms);
+        if (!VirtualReader.canMeasureAllocations()) {
+            System.out.println("Allocations not measured: no thread allocation counter");
+        }
+    }
+
+    /**
+     * What the reader's OrderTransaction sends for every order.
+     */
+    static VirtualReader orderSession() {
+        return new VirtualReader("order")
+                .send("SELECT", SELECT_APDU, Iso7816.SW_NO_ERROR)
+                .send("GET DATA 0101", GET_ORDER_COUNT_APDU, Iso7816.SW_NO_ERROR)
+                .send("INCREASE", INCREASE_ORDER_COUNT_APDU, Iso7816.SW_NO_ERROR)
+                .send("GET DATA 0101", GET_ORDER_COUNT_APDU, Iso7816.SW_NO_ERROR)
+                .linkLoss();
+    }
+
+    /**
+     * Writes the card holder name and reads it back.
+     */
+    static VirtualReader registrationSession() {
+        return new VirtualReader("registration")
+                .send("SELECT", SELECT_APDU, Iso7816.SW_NO_ERROR)
+                .send("UPDATE BINARY", UPDATE_BINARY_APDU, Iso7816.SW_NO_ERROR)
+                .send("READ BINARY", READ_BINARY_APDU, Iso7816.SW_NO_ERROR)
+                .send("GET DATA 5F20", GET_NAME_APDU, Iso7816.SW_NO_ERROR)
+                .linkLoss();
+    }
+
+    /**
+     * Fetches a 600 byte SELECT response with GET RESPONSE, then loses the link in the middle of
+     * a second chain, which must leave nothing to fetch.
+     */
+    static VirtualReader chainedSession() {
+        return new VirtualReader("chained")
+                .send("SELECT", SELECT_APDU, (Iso7816.SW1_BYTES_REMAINING << 8))
+                .send("GET RESPONSE", GET_RESPONSE_APDU, (Iso7816.SW1_BYTES_REMAINING << 8) | 88)
+                .send("GET RESPONSE", GET_RESPONSE_APDU, Iso7816.SW_NO_ERROR)
+                .send("SELECT", SELECT_APDU, (Iso7816.SW1_BYTES_REMAINING << 8))
+                .linkLoss()
+                .send("GET RESPONSE", GET_RESPONSE_APDU, Iso7816.SW_CONDITIONS_NOT_SATISFIED);
+    }
+
+    /**
+     * Commands the card turns down: before SELECT, after selecting another AID and unknown ones.
+     */
+    static VirtualReader rejectedSession() {
+        return new VirtualReader("rejected")
+                .send("GET DATA 0101", GET_ORDER_COUNT_APDU, Iso7816.SW_CONDITIONS_NOT_SATISFIED)
+                .send("SELECT other", SELECT_OTHER_APDU, Iso7816.SW_FILE_NOT_FOUND)
+                .send("INCREASE", INCREASE_ORDER_COUNT_APDU, Iso7816.SW_CONDITIONS_NOT_SATISFIED)
+                .send("unknown", UNKNOWN_APDU, Iso7816.SW_UNKNOWN)
+                .linkLoss();
+    }
+
+    private static void run(VirtualReader reader, String cardHolderName, int rounds,
+                            int warmupRounds, boolean histograms) {
+        CardApplet applet = new CardApplet(new MemoryCardStore(), LoyaltyCard.AID);
+        applet.setCardHolderName(cardHolderName);
+        reader.measureLatency(applet, warmupRounds);
+        reader.measureAllocations(applet, warmupRounds);
+        reader.reset();
+        reader.measureLatency(applet, rounds);
+        reader.measureAllocations(applet, rounds);
+        System.out.print(reader.appendReport(new StringBuilder(), histograms));
+    }
+
+    /**
+     * Keeps the stored values in fields, like SharedPreferences.Editor.apply() would before
+     * writing them out in the background.
+     */
+    private static final class MemoryCardStore implements CardStore {
+        String cardHolderName;
+        int orderCount;
+
+        @Override
+        public void storeCardHolderName(String cardHolderName) {
+            this.cardHolderName = cardHolderName;
+        }
+
+        @Override
+        public void storeOrderCount(int orderCount) {
+            this.orderCount = orderCount;
+        }
+    }
+}
@@ -0,0 +1,199 @@
+package com.barrysbeerbar.applet.bench;
+
+import com.barrysbeerbar.apdu.Hex;
+import com.barrysbeerbar.apdu.LatencyRecorder;
+import com.barrysbeerbar.apdu.ResponseApdu;
+import com.barrysbeerbar.applet.CardApplet;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Plays the reader's side of an NFC session against a {@link CardApplet} on a desktop JVM.
+ *
+ * <p>A script is a sequence of command APDUs, each with the status word the card must answer
+ * with, and link loss events, which are delivered as {@link CardApplet#onDeactivated()} just like
+ * HostApduService.onDeactivated(DEACTIVATION_LINK_LOSS). The script is replayed as often as
+ * needed; every step keeps its own {@link LatencyRecorder} and, where the JVM supports thread
+ * allocation counters, the bytes it allocated per replay.
+ *
+ * <p>Not thread safe, replay from one thread at a time.
+ */
+public final class VirtualReader {
+
+    private static final com.sun.management.ThreadMXBean THREADS = allocationCounter();
+
+    private final String name;
+    private final List<Step> steps = new ArrayList<Step>();
+
+    private long allocationRounds;
+
+    public VirtualReader(String name) {
+        this.name = name;
+    }
+
+    /**
+     * Adds a command APDU to the script.
+     *
+     * @param expectedSw Status word the card must answer with, e.g. 0x9000 or 0x6158 for a
+     *                   chained response
+     */
+    public VirtualReader send(String label, byte[] commandApdu, int expectedSw) {
+        steps.add(new Step(label, commandApdu, expectedSw));
+        return this;
+    }
+
+    /**
+     * Adds a loss of the link to the script.
+     */
+    public VirtualReader linkLoss() {
+        steps.add(new Step("link loss", null, 0));
+        return this;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return true if allocations can be measured on this JVM
+     */
+    public static boolean canMeasureAllocations() {
+        return THREADS != null;
+    }
+
+    /**
+     * Replays the script {@code rounds} times, recording the latency of each step.
+     *
+     * @throws IllegalStateException if the card answers with an unexpected status word
+     */
+    public void measureLatency(CardApplet applet, int rounds) {
+        for (int round = 0; round < rounds; round++) {
+            for (int i = 0; i < steps.size(); i++) {
+                Step step = steps.get(i);
+                long start = System.nanoTime();
+                byte[] response = step.run(applet);
+                step.latency.recordSince(start);
+                step.check(response);
+            }
+        }
+    }
+
+    /**
+     * Replays the script {@code rounds} times, counting the bytes allocated by each step. Does
+     * nothing if {@link #canMeasureAllocations()} is false.
+     *
+     * @throws IllegalStateException if the card answers with an unexpected status word
+     */
+    public void measureAllocations(CardApplet applet, int rounds) {
+        if (THREADS == null) {
+            return;
+        }
+        long threadId = Thread.currentThread().getId();
+        long overhead = allocationOverhead(threadId);
+        for (int round = 0; round < rounds; round++) {
+            for (int i = 0; i < steps.size(); i++) {
+                Step step = steps.get(i);
+                long before = THREADS.getThreadAllocatedBytes(threadId);
+                byte[] response = step.run(applet);
+                long after = THREADS.getThreadAllocatedBytes(threadId);
+                step.allocatedBytes += Math.max(0, after - before - overhead);
+                step.check(response);
+            }
+        }
+        allocationRounds += rounds;
+    }
+
+    /**
+     * Forgets everything measured so far, e.g. after warming up.
+     */
+    public void reset() {
+        for (Step step : steps) {
+            step.latency.reset();
+            step.allocatedBytes = 0;
+        }
+        allocationRounds = 0;
+    }
+
+    /**
+     * Appends the latency and allocations of every step, followed by its latency histogram if
+     * {@code histograms} is set.
+     */
+    public StringBuilder appendReport(StringBuilder sb, boolean histograms) {
+        sb.append(name).append('\n');
+        for (Step step : steps) {
+            sb.append("  ").append(step.latency);
+            if (allocationRounds > 0) {
+                sb.append(" alloc=").append(step.allocatedBytes / allocationRounds).append("B");
+            }
+            sb.append('\n');
+            if (histograms) {
+                step.latency.appendHistogram(sb);
+            }
+        }
+        return sb;
+    }
+
+    /**
+     * Bytes the allocation counter itself reports between two back to back reads.
+     */
+    private static long allocationOverhead(long threadId) {
+        long overhead = Long.MAX_VALUE;
+        for (int i = 0; i < 100; i++) {
+            long before = THREADS.getThreadAllocatedBytes(threadId);
+            long after = THREADS.getThreadAllocatedBytes(threadId);
+            overhead = Math.min(overhead, after - before);
+        }
+        return overhead;
+    }
+
+    private static com.sun.management.ThreadMXBean allocationCounter() {
+        java.lang.management.ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        if (!(threads instanceof com.sun.management.ThreadMXBean)) {
+            return null;
+        }
+        com.sun.management.ThreadMXBean counter = (com.sun.management.ThreadMXBean) threads;
+        if (!counter.isThreadAllocatedMemorySupported()) {
+            return null;
+        }
+        counter.setThreadAllocatedMemoryEnabled(true);
+        return counter;
+    }
+
+    private static final class Step {
+        final byte[] commandApdu;
+        final int expectedSw;
+        final LatencyRecorder latency;
+        long allocatedBytes;
+
+        Step(String label, byte[] commandApdu, int expectedSw) {
+            this.commandApdu = commandApdu;
+            this.expectedSw = expectedSw;
+            latency = new LatencyRecorder(label);
+        }
+
+        /**
+         * @return the response, or null for a link loss
+         */
+        byte[] run(CardApplet applet) {
+            if (commandApdu == null) {
+                applet.onDeactivated();
+                return null;
+            }
+            return applet.processCommandApdu(commandApdu);
+        }
+
+        void check(byte[] response) {
+            if (response == null) {
+                return;
+            }
+            int sw = ResponseApdu.statusWord(response, 0, response.length);
+            if (sw != expectedSw) {
+                throw new IllegalStateException(latency.getName() + " "
+                        + Hex.toHexString(commandApdu) + ": expected SW "
+                        + Integer.toHexString(expectedSw) + ", got " + Integer.toHexString(sw));
+            }
+        }
+    }
+}
@@ -0,0 +1,38 @@
+package com.barrysbeerbar.cardreader;
+
+import android.nfc.Tag;
+import android.nfc.tech.IsoDep;
+import android.nfc.tech.MifareUltralight;
+
+import com.barrysbeerbar.apdu.ApduConnection;
+import com.barrysbeerbar.reader.NfcTag;
+import com.barrysbeerbar.reader.UltralightTag;
+
+/**
+ * {@link NfcTag} backed by a {@link Tag} discovered in reader mode.
+ */
+final class AndroidNfcTag implements NfcTag {
+
+    private final Tag tag;
+
+    AndroidNfcTag(Tag tag) {
+        this.tag = tag;
+    }
+
+    @Override
+    public byte[] getId() {
+        return tag.getId();
+    }
+
+    @Override
+    public UltralightTag getUltralight() {
+        MifareUltralight mifare = MifareUltralight.get(tag);
+        return mifare != null ? new MifareUltralightTag(mifare) : null;
+    }
+
+    @Override
+    public ApduConnection getIsoDep() {
+        IsoDep isoDep = IsoDep.get(tag);
+        return isoDep != null ? new IsoDepChannel(isoDep) : null;
+    }
+}
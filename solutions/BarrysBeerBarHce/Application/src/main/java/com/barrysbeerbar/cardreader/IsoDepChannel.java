@@ -0,0 +1,44 @@
+package com.barrysbeerbar.cardreader;
+
+import android.nfc.tech.IsoDep;
+
+import com.barrysbeerbar.apdu.ApduConnection;
+
+import java.io.IOException;
+
+/**
+ * {@link ApduConnection} backed by an {@link IsoDep} tag.
+ */
+final class IsoDepChannel implements ApduConnection {
+
+    private final IsoDep isoDep;
+
+    IsoDepChannel(IsoDep isoDep) {
+        this.isoDep = isoDep;
+    }
+
+    @Override
+    public void connect() throws IOException {
+        isoDep.connect();
+    }
+
+    @Override
+    public byte[] transceive(byte[] command) throws IOException {
+        return isoDep.transceive(command);
+    }
+
+    @Override
+    public int getMaxTransceiveLength() {
+        return isoDep.getMaxTransceiveLength();
+    }
+
+    @Override
+    public boolean isExtendedLengthApduSupported() {
+        return isoDep.isExtendedLengthApduSupported();
+    }
+
+    @Override
+    public void close() throws IOException {
+        isoDep.close();
+    }
+}
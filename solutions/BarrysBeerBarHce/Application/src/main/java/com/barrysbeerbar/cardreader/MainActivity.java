@@ -24,43 +24,80 @@ import android.content.SharedPreferences;
 import android.graphics.PorterDuff;
 import android.nfc.NfcAdapter;
 import android.nfc.Tag;
-import android.nfc.tech.IsoDep;
-import android.nfc.tech.MifareUltralight;
 import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
 import android.text.InputFilter;
 import android.text.Spanned;
 import android.util.Log;
+import android.view.Choreographer;
 import android.view.View;
 import android.widget.Button;
 import android.widget.EditText;
 import android.widget.Toast;
 
+import com.barrysbeerbar.apdu.ApduTrace;
+import com.barrysbeerbar.reader.OrderCommitter;
+import com.barrysbeerbar.reader.OrderRate;
+import com.barrysbeerbar.reader.OrderStore;
+import com.barrysbeerbar.reader.ReaderMode;
+import com.barrysbeerbar.reader.TagProcessor;
+import com.barrysbeerbar.reader.TapDebouncer;
 import com.example.android.cardreader.R;
+import com.nfcworkshop.format.MessageTemplate;
 
+import java.io.File;
 import java.io.IOException;
-import java.nio.charset.Charset;
-import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 public class MainActivity extends Activity  implements NfcAdapter.ReaderCallback{
 
     public static final String BARRYS_BEER_BAR_PREFERENCES = "BarrysBeerBarPreferences";
+    public static final String ORDER_LOG = "orders.log";
 
     public static final String TAG = "MainActivity";
-    public static final int PAGE_OFFSET = 4;
 
-    // AID
-    private static final String AID = "F222333222";
-    // ISO-DEP command HEADER for selecting an AID.
-    // Format: [Class | Instruction | Parameter 1 | Parameter 2]
-    private static final String SELECT_APDU_HEADER = "00A40400";
-    // "OK" status word sent in response to SELECT AID command (0x9000)
-    private static final byte[] SELECT_OK_SW = {(byte) 0x90, (byte) 0x00};
 
     public static int READER_FLAGS = NfcAdapter.FLAG_READER_NFC_A | NfcAdapter.FLAG_READER_SKIP_NDEF_CHECK;
 
-    private String customerToRegister = null;
-
-    private boolean takingOrders = false;
+    // Events for the UI thread, see postEvent.
+    private static final int EVENT_REGISTERED = 1;
+    private static final int EVENT_REGISTRATION_FAILED = 2;
+    private static final int EVENT_READ_FAILED = 3;
+    private static final int EVENT_ORDER_RECORDED = 4;
+    private static final int EVENT_ORDER_FAILED = 5;
+    private static final int EVENT_MODE_CHANGED = 6;
+    private static final int EVENT_ORDER_CAP_REACHED = 7;
+
+    // Changed by the buttons, completed by onTagDiscovered.
+    private final ReaderMode mode = new ReaderMode();
+    // Orders per minute while taking orders continuously.
+    private final OrderRate orderRate = new OrderRate();
+    private int continuousOrderCap;
+
+    // Last exchanged APDUs, dumped to logcat after each tag when debug logging is enabled for
+    // this tag (adb shell setprop log.tag.MainActivity DEBUG).
+    private final ApduTrace trace = new ApduTrace(64, 64);
+    private TapDebouncer tapDebouncer;
+    private OrderStore orderStore;
+    // Records orders on its own thread; null if the order log could not be opened.
+    private OrderCommitter orderCommitter;
+    // Only used from the NFC reader thread.
+    private TagProcessor tagProcessor;
+
+    // UI updates from the NFC reader thread and from the OrderCommitter thread, one ring per
+    // producing thread. The UI thread drains both once per frame.
+    private final TapEventRing readerEvents = new TapEventRing(64);
+    private final TapEventRing commitEvents = new TapEventRing(256);
+    private final AtomicBoolean frameScheduled = new AtomicBoolean();
+    private final Handler uiHandler = new Handler(Looper.getMainLooper());
+    // Text of the toast shown for the events of one frame; only touched on the UI thread.
+    private final StringBuilder toastText = new StringBuilder();
+    private final MessageTemplate orderToast =
+            new MessageTemplate("{} wants a beer! {} now has {} orders.");
+    private final StringBuilder statusText = new StringBuilder();
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
@@ -73,6 +110,23 @@ public class MainActivity extends Activity  implements NfcAdapter.ReaderCallback
 
         setContentView(R.layout.activity_main);
 
+        tapDebouncer = new TapDebouncer(16, getResources().getInteger(R.integer.tap_debounce_window_ms));
+        continuousOrderCap = getResources().getInteger(R.integer.continuous_order_cap);
+
+        try {
+            orderStore = OrderStore.open(new File(getFilesDir(), ORDER_LOG));
+            if (orderStore.isEmpty()) {
+                importOrders();
+            }
+            orderCommitter = new OrderCommitter(orderStore,
+                    getResources().getInteger(R.integer.order_commit_window_ms), orderListener);
+            orderCommitter.start();
+        } catch (IOException e) {
+            Log.e(TAG, "Could not open order log", e);
+        }
+        tagProcessor = new TagProcessor(mode, tapDebouncer, orderRate, orderStore, orderCommitter, tagListener);
+        tagProcessor.getOrderTransaction().getSession().setTrace(trace);
+
         NfcAdapter nfc = NfcAdapter.getDefaultAdapter(this);
         if (nfc != null) {
             nfc.enableReaderMode(this, this, READER_FLAGS, null);
@@ -80,8 +134,8 @@ public class MainActivity extends Activity  implements NfcAdapter.ReaderCallback
     }
 
     public void registerCustomer(View view) {
-        takingOrders = false;
-        showInactive((Button) findViewById(R.id.takeOrder));
+        mode.stop();
+        showMode();
         showActive((Button) findViewById(R.id.register));
 
         final EditText input = new EditText(this);
@@ -99,220 +153,251 @@ public class MainActivity extends Activity  implements NfcAdapter.ReaderCallback
             .setView(input)
             .setPositiveButton("Ok", new DialogInterface.OnClickListener() {
                 public void onClick(DialogInterface dialog, int whichButton) {
-                    customerToRegister = input.getText().toString();
+                    mode.startRegistering(input.getText().toString());
+                    showMode();
                 }
             }).setNegativeButton("Cancel", new DialogInterface.OnClickListener() {
                 public void onClick(DialogInterface dialog, int whichButton) {
-                    showInactive((Button) findViewById(R.id.register));
+                    showMode();
                 }
             }).show();
     }
 
     public void takeOrder(View view) {
-        takingOrders = true;
-        customerToRegister = null;
-
-        showInactive((Button) findViewById(R.id.register));
-        showActive((Button) findViewById(R.id.takeOrder));
+        mode.startTakingOrder();
+        showMode();
     }
 
-    private void showActive(final Button button) {
-        runOnUiThread(new Runnable() {
-            @Override
-            public void run() {
-                button.getBackground().setColorFilter(getResources().getColor(R.color.activeButton), PorterDuff.Mode.MULTIPLY);
-            }
-        });
+    /**
+     * Starts or stops taking an order from every tapped card.
+     */
+    public void takeOrders(View view) {
+        if (mode.getMode() == ReaderMode.Mode.TAKING_ORDERS) {
+            mode.stop();
+        } else {
+            orderRate.reset();
+            mode.startTakingOrders(continuousOrderCap);
+        }
+        showMode();
     }
 
-    private void showInactive(final Button button) {
-        runOnUiThread(new Runnable() {
-            @Override
-            public void run() {
-                button.getBackground().setColorFilter(getResources().getColor(R.color.inactiveButton), PorterDuff.Mode.MULTIPLY);
+    /**
+     * Highlights the button of the current mode and shows the progress of continuous order
+     * taking. UI thread only; other threads post EVENT_MODE_CHANGED.
+     */
+    private void showMode() {
+        ReaderMode.Mode current = mode.getMode();
+        showActive((Button) findViewById(R.id.register), current == ReaderMode.Mode.REGISTERING);
+        showActive((Button) findViewById(R.id.takeOrder), current == ReaderMode.Mode.TAKING_ORDER);
+        Button takeOrders = (Button) findViewById(R.id.takeOrders);
+        showActive(takeOrders, current == ReaderMode.Mode.TAKING_ORDERS);
+        if (current == ReaderMode.Mode.TAKING_ORDERS) {
+            statusText.setLength(0);
+            statusText.append(getString(R.string.stopTakingOrders)).append(" (")
+                    .append(mode.getOrdersTaken());
+            if (mode.getOrderCap() > 0) {
+                statusText.append('/').append(mode.getOrderCap());
             }
-        });
+            statusText.append(" orders, ").append(orderRate.getPerMinute(SystemClock.elapsedRealtime()))
+                    .append("/min)");
+            takeOrders.setText(statusText.toString());
+        } else {
+            takeOrders.setText(R.string.takeOrders);
+        }
     }
 
-    @Override
-    public void onTagDiscovered(Tag tag) {
-        if(customerToRegister != null) {
-            final String customerName = writeTag(tag, padRight(customerToRegister, 16)).trim();
-            runOnUiThread(new Runnable() {
-                @Override
-                public void run() {
-                    Toast.makeText(MainActivity.this, customerName + " registered. ", Toast.LENGTH_SHORT).show();
-                }
-            });
-            customerToRegister=null;
-            showInactive((Button) findViewById(R.id.register));
-        }
-        if(takingOrders) {
-            final String customerName = readTag(tag).trim();
-            runOnUiThread(new Runnable() {
-                @Override
-                public void run() {
-                    int orders = getOrders(customerName);
-                    orders = ++orders;
-                    setOrders(customerName, orders);
-                    String message = String.format("%s wants a beer! %s now has %d orders.", customerName, customerName, orders);
-                    Toast.makeText(MainActivity.this, message, Toast.LENGTH_SHORT).show();
-                }
-            });
-            takingOrders = false;
-            showInactive((Button) findViewById(R.id.takeOrder));
+    private void showActive(Button button, boolean active) {
+        if (active) {
+            showActive(button);
+        } else {
+            showInactive(button);
         }
     }
 
-    public static String padRight(String s, int n) {
-        return String.format("%1$-" + n + "s", s);
+    private void showActive(Button button) {
+        button.getBackground().setColorFilter(getResources().getColor(R.color.activeButton), PorterDuff.Mode.MULTIPLY);
     }
 
+    private void showInactive(Button button) {
+        button.getBackground().setColorFilter(getResources().getColor(R.color.inactiveButton), PorterDuff.Mode.MULTIPLY);
+    }
 
-    private String writeTag(Tag tag, String tagText) {
-        MifareUltralight mifare = MifareUltralight.get(tag);
-        if(mifare!=null) {
-            writeMifareTag(mifare, tagText);
+    /**
+     * Queues an event for the UI thread and makes sure a frame callback will drain it. However
+     * many events arrive, at most one message per frame reaches the UI thread.
+     *
+     * @param ring {@link #readerEvents} on the NFC reader thread, {@link #commitEvents} on the
+     *             OrderCommitter thread
+     */
+    private void postEvent(TapEventRing ring, int type, int customerId, int value) {
+        if (!ring.offer(type, customerId, value)) {
+            Log.w(TAG, "UI event dropped, " + ring.getDropped() + " so far");
+        }
+        if (frameScheduled.compareAndSet(false, true)) {
+            uiHandler.post(scheduleFrame);
         }
-        return tagText;
     }
 
-    private String readTag(Tag tag) {
-        MifareUltralight mifare = MifareUltralight.get(tag);
-        if(mifare!=null) {
-            return readMifareTag(mifare);
+    private final Runnable scheduleFrame = new Runnable() {
+        @Override
+        public void run() {
+            Choreographer.getInstance().postFrameCallback(drainEvents);
         }
-
-        IsoDep isoDep = IsoDep.get(tag);
-        if(isoDep!=null) {
-            return readIsoDepTag(isoDep);
+    };
+
+    private final Choreographer.FrameCallback drainEvents = new Choreographer.FrameCallback() {
+        @Override
+        public void doFrame(long frameTimeNanos) {
+            // Cleared first: events posted from now on schedule another frame.
+            frameScheduled.set(false);
+            toastText.setLength(0);
+            readerEvents.drain(applyEvent);
+            commitEvents.drain(applyEvent);
+            if (toastText.length() > 0) {
+                Toast.makeText(MainActivity.this, toastText.toString(), Toast.LENGTH_SHORT).show();
+            }
         }
+    };
 
-        return null;
-    }
-
-    private String writeMifareTag(MifareUltralight mifare, String tagText) {
-        try {
-            mifare.connect();
-            for (int i = 0; i < 4; i++) {
-                int stringIndex = i * 4;
-                String pageString = tagText.substring(stringIndex, stringIndex + 4);
-                mifare.writePage(PAGE_OFFSET + i, pageString.getBytes(Charset.forName("US-ASCII")));
+    /**
+     * Applies one event on the UI thread. Messages of all events in a frame end up in one toast.
+     */
+    private final TapEventRing.Consumer applyEvent = new TapEventRing.Consumer() {
+        @Override
+        public void onEvent(int type, int customerId, int value) {
+            if (type == EVENT_MODE_CHANGED) {
+                showMode();
+                return;
             }
-        } catch (IOException e) {
-            Log.e(TAG, "IOException while closing MifareUltralight...", e);
-        } finally {
-            try {
-                mifare.close();
-            } catch (IOException e) {
-                Log.e(TAG, "IOException while closing MifareUltralight...", e);
+            if (toastText.length() > 0) {
+                toastText.append('\n');
+            }
+            String customerName = customerId >= 0 && orderStore != null ? orderStore.getName(customerId) : null;
+            switch (type) {
+                case EVENT_REGISTERED:
+                    toastText.append(customerName).append(" registered.");
+                    break;
+                case EVENT_REGISTRATION_FAILED:
+                    toastText.append("Registration failed, try again.");
+                    break;
+                case EVENT_READ_FAILED:
+                    toastText.append("Could not read card or customer not registered, try again.");
+                    break;
+                case EVENT_ORDER_RECORDED:
+                    orderToast.appendTo(toastText).text(customerName).text(customerName).number(value).done();
+                    break;
+                case EVENT_ORDER_FAILED:
+                    toastText.append("Could not record order of ").append(customerName).append('.');
+                    break;
+                case EVENT_ORDER_CAP_REACHED:
+                    toastText.append("Took ").append(value).append(" orders, stopped taking orders.");
+                    break;
             }
         }
-        return tagText;
-    }
+    };
 
-
-    private String readMifareTag(MifareUltralight mifare) {
-        try {
-            mifare.connect();
-            byte[] payload = mifare.readPages(PAGE_OFFSET);
-            return new String(payload, Charset.forName("US-ASCII"));
-        } catch (IOException e) {
-            Log.e(TAG, "IOException while writing MifareUltralight message...", e);
-        } finally {
-            if (mifare != null) {
-                try {
-                    mifare.close();
-                } catch (IOException e) {
-                    Log.e(TAG, "Error closing tag...", e);
-                }
+    @Override
+    public void onTagDiscovered(Tag tag) {
+        if (!tagProcessor.onTagDiscovered(new AndroidNfcTag(tag), SystemClock.elapsedRealtime())) {
+            if (Log.isLoggable(TAG, Log.DEBUG)) {
+                Log.d(TAG, "Ignoring repeated tap, " + tapDebouncer.getHits() + " so far");
             }
+            return;
+        }
+        if (Log.isLoggable(TAG, Log.DEBUG) && trace.size() > 0) {
+            StringBuilder timings = new StringBuilder("Order transaction: ");
+            tagProcessor.getOrderTransaction().getSession().appendTimings(timings);
+            Log.d(TAG, timings.toString());
+            Log.d(TAG, "APDU trace:\n" + trace.dump());
+            trace.clear();
         }
-        return null;
     }
 
-    private String readIsoDepTag(IsoDep isoDep) {
-        try {
-            isoDep.connect();
-            Log.i(TAG, "Requesting remote AID: " + AID);
-            byte[] command = BuildSelectApdu(AID);
-
-            Log.i(TAG, "Sending: " + ByteArrayToHexString(command));
-            byte[] result = isoDep.transceive(command);
-
-            // If AID is successfully selected, 0x9000 is returned as the status word (last 2
-            // bytes of the result) by convention. Everything before the status word is
-            // optional payload, which is used here to hold the account number.
-            int resultLength = result.length;
-            byte[] statusWord = {result[resultLength - 2], result[resultLength - 1]};
-            byte[] payload = Arrays.copyOf(result, resultLength - 2);
-            if (Arrays.equals(SELECT_OK_SW, statusWord)) {
-                return new String(payload, "US-ASCII");
-            }
-        } catch (IOException e) {
-            Log.e(TAG, "Error communicating with card: " + e.toString());
+    private final TagProcessor.Listener tagListener = new TagProcessor.Listener() {
+        @Override
+        public void onRegistered(int customerId) {
+            postEvent(readerEvents, EVENT_REGISTERED, customerId, 0);
         }
-        return null;
-    }
 
+        @Override
+        public void onRegistrationFailed() {
+            postEvent(readerEvents, EVENT_REGISTRATION_FAILED, -1, 0);
+        }
 
-    /**
-     * Build APDU for SELECT AID command. This command indicates which service a reader is
-     * interested in communicating with. See ISO 7816-4.
-     *
-     * @param aid Application ID (AID) to select
-     * @return APDU for SELECT AID command
-     */
-    public static byte[] BuildSelectApdu(String aid) {
-        // Format: [CLASS | INSTRUCTION | PARAMETER 1 | PARAMETER 2 | LENGTH | DATA]
-        return HexStringToByteArray(SELECT_APDU_HEADER + String.format("%02X", aid.length() / 2) + aid);
-    }
+        @Override
+        public void onReadFailed() {
+            postEvent(readerEvents, EVENT_READ_FAILED, -1, 0);
+        }
 
-    /**
-     * Utility class to convert a hexadecimal string to a byte string.
-     *
-     * <p>Behavior with input strings containing non-hexadecimal characters is undefined.
-     *
-     * @param s String containing hexadecimal characters to convert
-     * @return Byte array generated from input
-     */
-    public static byte[] HexStringToByteArray(String s) {
-        int len = s.length();
-        byte[] data = new byte[len / 2];
-        for (int i = 0; i < len; i += 2) {
-            data[i / 2] = (byte) ((Character.digit(s.charAt(i), 16) << 4)
-                    + Character.digit(s.charAt(i+1), 16));
+        @Override
+        public void onOrderFailed(int customerId) {
+            postEvent(readerEvents, EVENT_ORDER_FAILED, customerId, 0);
         }
-        return data;
-    }
 
-    /**
-     * Utility class to convert a byte array to a hexadecimal string.
-     *
-     * @param bytes Bytes to convert
-     * @return String, containing hexadecimal representation.
-     */
-    public static String ByteArrayToHexString(byte[] bytes) {
-        final char[] hexArray = {'0','1','2','3','4','5','6','7','8','9','A','B','C','D','E','F'};
-        char[] hexChars = new char[bytes.length * 2];
-        int v;
-        for ( int j = 0; j < bytes.length; j++ ) {
-            v = bytes[j] & 0xFF;
-            hexChars[j * 2] = hexArray[v >>> 4];
-            hexChars[j * 2 + 1] = hexArray[v & 0x0F];
+        @Override
+        public void onOrderCapReached(int orderCap) {
+            postEvent(readerEvents, EVENT_ORDER_CAP_REACHED, -1, orderCap);
         }
-        return new String(hexChars);
-    }
 
-    private int getOrders(String customerName) {
-        SharedPreferences sharedPreferences = getSharedPreferences(BARRYS_BEER_BAR_PREFERENCES, MODE_PRIVATE);
-        return sharedPreferences.getInt(customerName, 0);
+        @Override
+        public void onModeChanged() {
+            postEvent(readerEvents, EVENT_MODE_CHANGED, -1, 0);
+        }
+
+        @Override
+        public void onError(String message, IOException e) {
+            Log.e(TAG, message, e);
+        }
+    };
+
+    private final OrderCommitter.Listener orderListener = new OrderCommitter.Listener() {
+        @Override
+        public void onOrderCommitted(int customerId, int orders) {
+            if (Log.isLoggable(TAG, Log.DEBUG) && orderCommitter != null) {
+                Log.d(TAG, "Orders: " + orderCommitter);
+            }
+            if (orders < 0) {
+                postEvent(commitEvents, EVENT_ORDER_FAILED, customerId, 0);
+            } else {
+                postEvent(commitEvents, EVENT_ORDER_RECORDED, customerId, orders);
+            }
+        }
+    };
+
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        // No more tags may reach the tag processor once the store is closed. A tag being
+        // processed right now gets an IOException from the store and is reported as failed.
+        NfcAdapter nfc = NfcAdapter.getDefaultAdapter(this);
+        if (nfc != null) {
+            nfc.disableReaderMode(this);
+        }
+        if (orderStore != null) {
+            try {
+                if (orderCommitter != null) {
+                    orderCommitter.close();
+                }
+                orderStore.close();
+            } catch (IOException e) {
+                Log.e(TAG, "Error closing order log", e);
+            }
+        }
+        // After closing the committer, which may still post events.
+        uiHandler.removeCallbacks(scheduleFrame);
+        Choreographer.getInstance().removeFrameCallback(drainEvents);
     }
 
-    private void setOrders(String customerName, int orders) {
+    /**
+     * Copies the order counters kept in the preferences by earlier versions into the order log.
+     */
+    private void importOrders() throws IOException {
         SharedPreferences sharedPreferences = getSharedPreferences(BARRYS_BEER_BAR_PREFERENCES, MODE_PRIVATE);
-        SharedPreferences.Editor editor = sharedPreferences.edit();
-        editor.putInt(customerName, orders);
-        editor.apply();
+        for (Map.Entry<String, ?> entry : sharedPreferences.getAll().entrySet()) {
+            if (entry.getValue() instanceof Integer) {
+                orderStore.setOrders(entry.getKey(), (Integer) entry.getValue());
+            }
+        }
+        orderStore.sync();
     }
 }
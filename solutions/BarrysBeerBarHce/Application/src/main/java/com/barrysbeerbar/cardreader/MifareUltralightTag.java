@@ -0,0 +1,39 @@
+package com.barrysbeerbar.cardreader;
+
+import android.nfc.tech.MifareUltralight;
+
+import com.barrysbeerbar.reader.UltralightTag;
+
+import java.io.IOException;
+
+/**
+ * {@link UltralightTag} backed by a {@link MifareUltralight} tag.
+ */
+final class MifareUltralightTag implements UltralightTag {
+
+    private final MifareUltralight mifare;
+
+    MifareUltralightTag(MifareUltralight mifare) {
+        this.mifare = mifare;
+    }
+
+    @Override
+    public void connect() throws IOException {
+        mifare.connect();
+    }
+
+    @Override
+    public byte[] readPages(int pageOffset) throws IOException {
+        return mifare.readPages(pageOffset);
+    }
+
+    @Override
+    public void writePage(int pageOffset, byte[] data) throws IOException {
+        mifare.writePage(pageOffset, data);
+    }
+
+    @Override
+    public void close() throws IOException {
+        mifare.close();
+    }
+}
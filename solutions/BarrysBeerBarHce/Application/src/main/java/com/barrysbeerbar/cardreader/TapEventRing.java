@@ -0,0 +1,90 @@
+package com.barrysbeerbar.cardreader;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Preallocated single-producer/single-consumer ring buffer of UI events.
+ *
+ * <p>An event is an event type and two int arguments, stored in parallel arrays, so offering
+ * and draining events does not allocate. Exactly one thread may call {@link #offer} and exactly
+ * one (other) thread may call {@link #drain}; neither takes a lock. When the ring is full new
+ * events are dropped and counted.
+ */
+final class TapEventRing {
+
+    /**
+     * Receives drained events, on the consumer thread.
+     */
+    interface Consumer {
+        void onEvent(int type, int customerId, int value);
+    }
+
+    private final int mask;
+    private final int[] types;
+    private final int[] customerIds;
+    private final int[] values;
+    // Next slot to read, only advanced by the consumer.
+    private final AtomicLong head = new AtomicLong();
+    // Next slot to write, only advanced by the producer.
+    private final AtomicLong tail = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+
+    /**
+     * @param capacity Number of events held, rounded up to a power of two
+     */
+    TapEventRing(int capacity) {
+        int size = Integer.highestOneBit(Math.max(1, capacity - 1)) << 1;
+        mask = size - 1;
+        types = new int[size];
+        customerIds = new int[size];
+        values = new int[size];
+    }
+
+    /**
+     * Adds an event. Producer thread only.
+     *
+     * @return false if the ring was full and the event was dropped
+     */
+    boolean offer(int type, int customerId, int value) {
+        long t = tail.get();
+        if (t - head.get() > mask) {
+            dropped.incrementAndGet();
+            return false;
+        }
+        int slot = (int) t & mask;
+        types[slot] = type;
+        customerIds[slot] = customerId;
+        values[slot] = value;
+        // Publishes the slot to the consumer.
+        tail.lazySet(t + 1);
+        return true;
+    }
+
+    /**
+     * Passes all events offered so far to {@code consumer}, oldest first. Consumer thread only.
+     *
+     * @return the number of events drained
+     */
+    int drain(Consumer consumer) {
+        long h = head.get();
+        long t = tail.get();
+        for (long i = h; i < t; i++) {
+            int slot = (int) i & mask;
+            consumer.onEvent(types[slot], customerIds[slot], values[slot]);
+        }
+        // Hands the slots back to the producer.
+        head.lazySet(t);
+        return (int) (t - h);
+    }
+
+    boolean isEmpty() {
+        return head.get() == tail.get();
+    }
+
+    /**
+     * @return the number of events dropped because the ring was full
+     */
+    long getDropped() {
+        return dropped.get();
+    }
+}
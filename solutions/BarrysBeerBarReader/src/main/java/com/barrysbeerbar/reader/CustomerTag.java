@@ -0,0 +1,59 @@
+package com.barrysbeerbar.reader;
+
+/**
+ * Customer id as stored on a MIFARE Ultralight tag: one 4 byte page holding a 0xFF marker, the id
+ * (2 bytes, big endian) and a CRC-8 check byte over the first three.
+ *
+ * <p>The marker tells id pages apart from tags registered before customer ids, which hold the
+ * padded customer name in US-ASCII instead and so never start with 0xFF. The check byte catches
+ * pages that were not written completely.
+ */
+public final class CustomerTag {
+
+    public static final int LENGTH = 4;
+    public static final int MAX_ID = 0xFFFF;
+
+    private static final byte MARKER = (byte) 0xFF;
+
+    private CustomerTag() {
+    }
+
+    /**
+     * Writes the page for {@code customerId} to {@code page} at {@code offset}.
+     */
+    public static void encode(int customerId, byte[] page, int offset) {
+        if (customerId < 0 || customerId > MAX_ID) {
+            throw new IllegalArgumentException("Invalid customer id: " + customerId);
+        }
+        page[offset] = MARKER;
+        page[offset + 1] = (byte) (customerId >>> 8);
+        page[offset + 2] = (byte) customerId;
+        page[offset + 3] = crc8(page, offset, 3);
+    }
+
+    /**
+     * @return the customer id in the page at {@code offset}, or -1 if it holds no id or the check
+     * byte does not match
+     */
+    public static int decode(byte[] page, int offset) {
+        if (page.length - offset < LENGTH || page[offset] != MARKER
+                || crc8(page, offset, 3) != page[offset + 3]) {
+            return -1;
+        }
+        return ((page[offset + 1] & 0xFF) << 8) | (page[offset + 2] & 0xFF);
+    }
+
+    /**
+     * CRC-8 with polynomial 0x07, initial value 0x55.
+     */
+    private static byte crc8(byte[] data, int offset, int length) {
+        int crc = 0x55;
+        for (int i = offset; i < offset + length; i++) {
+            crc ^= data[i] & 0xFF;
+            for (int bit = 0; bit < 8; bit++) {
+                crc = (crc & 0x80) != 0 ? ((crc << 1) ^ 0x07) & 0xFF : (crc << 1) & 0xFF;
+            }
+        }
+        return (byte) crc;
+    }
+}
@@ -0,0 +1,27 @@
+package com.barrysbeerbar.reader;
+
+import com.barrysbeerbar.apdu.ApduConnection;
+
+/**
+ * A tag discovered by the reader, with the technologies the order pipeline uses.
+ *
+ * <p>The reader app wraps {@code android.nfc.Tag}; {@link com.barrysbeerbar.reader.sim} simulates
+ * tags so the pipeline can run without NFC hardware.
+ */
+public interface NfcTag {
+
+    /**
+     * @return the UID of the tag
+     */
+    byte[] getId();
+
+    /**
+     * @return the tag as MIFARE Ultralight, or null if it is not one
+     */
+    UltralightTag getUltralight();
+
+    /**
+     * @return an APDU connection to the tag if it supports ISO-DEP (ISO 14443-4), or null
+     */
+    ApduConnection getIsoDep();
+}
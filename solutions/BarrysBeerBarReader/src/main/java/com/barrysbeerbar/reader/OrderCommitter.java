@@ -0,0 +1,257 @@
+package com.barrysbeerbar.reader;
+
+import com.barrysbeerbar.apdu.LatencyRecorder;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Single writer thread that records orders in an {@link OrderStore}.
+ *
+ * <p>Orders are queued by customer id with {@link #submit(int)} from any thread, in a
+ * preallocated {@code int} queue. The writer takes the first queued order, collects whatever
+ * else arrives within the commit window and then records the whole batch with one
+ * {@link OrderStore#sync()}, so a burst of taps costs one flush to storage instead of one per
+ * order. The listener is told the new order count of every customer once the batch is durable;
+ * it is called on the writer thread.
+ */
+public final class OrderCommitter implements Closeable {
+
+    /**
+     * Receives the result of every submitted order, on the writer thread.
+     */
+    public interface Listener {
+        /**
+         * @param orders The new number of orders of the customer, or -1 if the order could not
+         *               be recorded
+         */
+        void onOrderCommitted(int customerId, int orders);
+    }
+
+    private static final int QUEUE_CAPACITY = 256;
+    private static final int MAX_BATCH_SIZE = 64;
+
+    private final OrderStore store;
+    private final long windowNanos;
+    private final Listener listener;
+    private final Thread thread;
+
+    // Queued customer ids, guarded by this.
+    private final int[] queue = new int[QUEUE_CAPACITY];
+    private int queueHead;
+    private int queueSize;
+
+    // Only touched by the writer thread.
+    private final int[] batch = new int[MAX_BATCH_SIZE];
+    private final int[] results = new int[MAX_BATCH_SIZE];
+
+    private final LatencyRecorder commitLatency = new LatencyRecorder("commit");
+    private final AtomicLong batchCount = new AtomicLong();
+    private final AtomicLong orderCount = new AtomicLong();
+    private volatile int maxBatchSize;
+    private boolean closed;
+
+    /**
+     * @param windowMillis Time the writer waits for more orders after the first one of a batch
+     */
+    public OrderCommitter(OrderStore store, long windowMillis, Listener listener) {
+        this.store = store;
+        this.windowNanos = TimeUnit.MILLISECONDS.toNanos(windowMillis);
+        this.listener = listener;
+        this.thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                runWriter();
+            }
+        }, "OrderCommitter");
+    }
+
+    public void start() {
+        thread.start();
+    }
+
+    /**
+     * Queues one order for the customer with id {@code customerId}.
+     *
+     * @return false if the order was not queued because the queue is full, the committer is
+     * closed or its writer thread stopped on an error
+     */
+    public synchronized boolean submit(int customerId) {
+        if (closed || queueSize == QUEUE_CAPACITY) {
+            return false;
+        }
+        queue[(queueHead + queueSize) % QUEUE_CAPACITY] = customerId;
+        queueSize++;
+        notifyAll();
+        return true;
+    }
+
+    /**
+     * Commits the orders queued so far and stops the writer thread.
+     */
+    @Override
+    public void close() throws IOException {
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            notifyAll();
+        }
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while closing", e);
+        }
+    }
+
+    public LatencyRecorder getCommitLatency() {
+        return commitLatency;
+    }
+
+    public long getBatchCount() {
+        return batchCount.get();
+    }
+
+    public long getOrderCount() {
+        return orderCount.get();
+    }
+
+    public int getMaxBatchSize() {
+        return maxBatchSize;
+    }
+
+    /**
+     * @return a one line summary of the batch sizes and the commit latency
+     */
+    @Override
+    public String toString() {
+        long batches = getBatchCount();
+        long orders = getOrderCount();
+        return new StringBuilder("batches=").append(batches)
+                .append(" orders=").append(orders)
+                .append(" mean batch=").append(batches == 0 ? 0 : orders / (double) batches)
+                .append(" max batch=").append(maxBatchSize)
+                .append(' ').append(commitLatency)
+                .toString();
+    }
+
+    private void runWriter() {
+        try {
+            int size;
+            while ((size = awaitBatch()) > 0) {
+                if (!commit(size)) {
+                    failQueued();
+                    break;
+                }
+            }
+        } catch (InterruptedException e) {
+            // Stop without committing the queued orders.
+        } finally {
+            // Also when the store or the listener threw: nothing would take new orders anymore.
+            synchronized (this) {
+                closed = true;
+            }
+        }
+    }
+
+    /**
+     * Waits for the first order, then up to the commit window for more, and moves them to
+     * {@link #batch}.
+     *
+     * @return the size of the batch, 0 once the committer is closed and the queue is empty
+     */
+    private synchronized int awaitBatch() throws InterruptedException {
+        while (queueSize == 0 && !closed) {
+            wait();
+        }
+        long deadline = System.nanoTime() + windowNanos;
+        while (queueSize < MAX_BATCH_SIZE && !closed) {
+            long remaining = deadline - System.nanoTime();
+            if (remaining <= 0) {
+                break;
+            }
+            TimeUnit.NANOSECONDS.timedWait(this, remaining);
+        }
+        return takeBatch();
+    }
+
+    /**
+     * Moves up to {@link #MAX_BATCH_SIZE} queued orders to {@link #batch}.
+     *
+     * @return the size of the batch
+     */
+    private synchronized int takeBatch() {
+        int size = Math.min(queueSize, MAX_BATCH_SIZE);
+        for (int i = 0; i < size; i++) {
+            batch[i] = queue[queueHead];
+            queueHead = (queueHead + 1) % QUEUE_CAPACITY;
+        }
+        queueSize -= size;
+        return size;
+    }
+
+    /**
+     * Stops taking orders and reports every queued one as not recorded.
+     */
+    private void failQueued() {
+        synchronized (this) {
+            closed = true;
+        }
+        int size;
+        while ((size = takeBatch()) > 0) {
+            for (int i = 0; i < size; i++) {
+                listener.onOrderCommitted(batch[i], -1);
+            }
+        }
+    }
+
+    /**
+     * Records the batch and reports every order of it to the listener.
+     *
+     * @return false if the batch could not be made durable, after which the store is not used
+     * anymore
+     */
+    private boolean commit(int size) {
+        long start = System.nanoTime();
+        for (int i = 0; i < size; i++) {
+            try {
+                results[i] = store.addOrder(batch[i]);
+            } catch (IOException e) {
+                results[i] = -1;
+            } catch (RuntimeException e) {
+                // E.g. an id the store does not know; the rest of the batch is still recorded.
+                results[i] = -1;
+            }
+        }
+        boolean durable = true;
+        try {
+            store.sync();
+        } catch (IOException e) {
+            // E.g. the store was closed.
+            durable = false;
+        } catch (RuntimeException e) {
+            // E.g. a store left broken by an earlier error.
+            durable = false;
+        }
+        if (!durable) {
+            // None of the batch is known to be on storage.
+            for (int i = 0; i < size; i++) {
+                results[i] = -1;
+            }
+        }
+        commitLatency.recordSince(start);
+        batchCount.incrementAndGet();
+        orderCount.addAndGet(size);
+        if (size > maxBatchSize) {
+            maxBatchSize = size;
+        }
+        for (int i = 0; i < size; i++) {
+            listener.onOrderCommitted(batch[i], results[i]);
+        }
+        return durable;
+    }
+}
@@ -0,0 +1,46 @@
+package com.barrysbeerbar.reader;
+
+/**
+ * Number of orders over the last minute, counted in 60 one-second buckets.
+ */
+public final class OrderRate {
+
+    private static final int SECONDS = 60;
+
+    private final long[] seconds = new long[SECONDS];
+    private final int[] counts = new int[SECONDS];
+
+    /**
+     * Counts one order at {@code nowMillis}, e.g. {@code SystemClock.elapsedRealtime()}.
+     */
+    public synchronized void record(long nowMillis) {
+        long second = nowMillis / 1000;
+        int bucket = (int) (second % SECONDS);
+        if (seconds[bucket] != second) {
+            seconds[bucket] = second;
+            counts[bucket] = 0;
+        }
+        counts[bucket]++;
+    }
+
+    /**
+     * @return the number of orders in the minute up to {@code nowMillis}
+     */
+    public synchronized int getPerMinute(long nowMillis) {
+        long second = nowMillis / 1000;
+        int total = 0;
+        for (int i = 0; i < SECONDS; i++) {
+            if (second - seconds[i] < SECONDS) {
+                total += counts[i];
+            }
+        }
+        return total;
+    }
+
+    public synchronized void reset() {
+        for (int i = 0; i < SECONDS; i++) {
+            seconds[i] = 0;
+            counts[i] = 0;
+        }
+    }
+}
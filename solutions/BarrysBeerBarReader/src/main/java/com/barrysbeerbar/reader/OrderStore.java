@@ -0,0 +1,482 @@
+package com.barrysbeerbar.reader;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+
+/**
+ * Order counters per customer, kept in an append-only binary log.
+ *
+ * <p>The log is memory-mapped and every order appends one fixed-size record, so recording an
+ * order costs the same no matter how many customers there are (unlike SharedPreferences, which
+ * rewrites its whole XML file on every change). The counters themselves live in memory: customers
+ * get dense integer ids and the counts are kept in an {@code int[]} indexed by id. The store
+ * doubles as the customer dictionary: {@link #register(String)} hands out the ids written to
+ * tags and {@link #getName(int)} maps them back.
+ *
+ * <p>Log layout: an 8 byte header (magic and version) followed by records of
+ * [type | length | checksum (2 bytes) | payload]:
+ * <ul>
+ *     <li>CUSTOMER: id (4 bytes) and name (UTF-8), assigns an id to a name,</li>
+ *     <li>ORDER: id (4 bytes), one order for a customer,</li>
+ *     <li>COUNT: id (4 bytes) and count (4 bytes), sets the counter of a customer.</li>
+ * </ul>
+ * The type byte is written last and the unused part of the mapping is zero, so after a crash the
+ * log is replayed up to the first missing or corrupt record and appending continues from there.
+ *
+ * <p>When the log holds many orders or the mapping is full, it is compacted: a new log with one
+ * CUSTOMER and one COUNT record per customer replaces the old one.
+ *
+ * <p>Appends reach the page cache right away and survive the process being killed; call
+ * {@link #sync()} to also force them to storage. All methods are synchronized. After
+ * {@link #close()}, the lookups keep answering from memory and everything that writes the log
+ * throws an IOException.
+ */
+public final class OrderStore implements Closeable {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final int MAGIC = 0x42424F4C; // "BBOL"
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 8;
+
+    private static final byte TYPE_CUSTOMER = 1;
+    private static final byte TYPE_ORDER = 2;
+    private static final byte TYPE_COUNT = 3;
+    private static final int RECORD_HEADER_SIZE = 4;
+    private static final int ORDER_RECORD_SIZE = RECORD_HEADER_SIZE + 4;
+    private static final int MAX_NAME_LENGTH = 255 - 4;
+
+    private static final int INITIAL_MAPPING_SIZE = 64 * 1024;
+    // Number of ORDER records after which the log is compacted.
+    private static final int COMPACT_AFTER_ORDERS = 8192;
+
+    private final File file;
+    private RandomAccessFile randomAccessFile;
+    private MappedByteBuffer log;
+    private int position;
+    private int ordersSinceCompaction;
+
+    // Index: names[id] and counts[id] per customer, and an open-addressing table from name to
+    // id + 1 (0 marks a free slot).
+    private String[] names = new String[16];
+    private int[] counts = new int[16];
+    private int customerCount;
+    private int[] table = new int[32];
+
+    private OrderStore(File file) {
+        this.file = file;
+    }
+
+    /**
+     * Opens the log in {@code file}, creating it if needed, and replays it into memory.
+     */
+    public static OrderStore open(File file) throws IOException {
+        OrderStore store = new OrderStore(file);
+        store.map(Math.max((int) file.length(), INITIAL_MAPPING_SIZE));
+        store.replay();
+        if (store.ordersSinceCompaction >= COMPACT_AFTER_ORDERS) {
+            store.compact();
+        }
+        return store;
+    }
+
+    /**
+     * @return true if the log holds no customers, e.g. because it was just created
+     */
+    public synchronized boolean isEmpty() {
+        return customerCount == 0;
+    }
+
+    /**
+     * Looks up the id of {@code customerName}, assigning the next free id to new customers.
+     * Ids are dense: they run from 0 to the number of customers - 1 and never change.
+     *
+     * @return the id of the customer
+     */
+    public synchronized int register(String customerName) throws IOException {
+        checkOpen();
+        return idFor(customerName);
+    }
+
+    /**
+     * @return the number of registered customers, which is also the id the next one gets
+     */
+    public synchronized int getCustomerCount() {
+        return customerCount;
+    }
+
+    /**
+     * @return the id of {@code customerName}, or -1 if the customer was never registered
+     */
+    public synchronized int getId(String customerName) {
+        return find(customerName);
+    }
+
+    /**
+     * @return the name of the customer with id {@code customerId}, or null for unknown ids
+     */
+    public synchronized String getName(int customerId) {
+        return customerId >= 0 && customerId < customerCount ? names[customerId] : null;
+    }
+
+    /**
+     * @return the number of orders of the customer with id {@code customerId}
+     */
+    public synchronized int getOrders(int customerId) {
+        checkId(customerId);
+        return counts[customerId];
+    }
+
+    /**
+     * Records one order for the customer with id {@code customerId}.
+     *
+     * @return the new number of orders of the customer
+     */
+    public synchronized int addOrder(int customerId) throws IOException {
+        checkOpen();
+        checkId(customerId);
+        ensureCapacity(ORDER_RECORD_SIZE);
+        int payload = position + RECORD_HEADER_SIZE;
+        log.putInt(payload, customerId);
+        position = commitRecord(log, position, TYPE_ORDER, 4);
+        ordersSinceCompaction++;
+        counts[customerId]++;
+        int orders = counts[customerId];
+        if (ordersSinceCompaction >= COMPACT_AFTER_ORDERS) {
+            try {
+                compact();
+            } catch (IOException e) {
+                // The order is recorded; compaction is tried again after the next one.
+            }
+        }
+        return orders;
+    }
+
+    /**
+     * Sets the number of orders of {@code customerName}, e.g. when importing old counters.
+     */
+    public synchronized void setOrders(String customerName, int orders) throws IOException {
+        checkOpen();
+        int id = idFor(customerName);
+        appendCount(id, orders);
+        counts[id] = orders;
+    }
+
+    /**
+     * Forces all appended records to storage.
+     */
+    public synchronized void sync() throws IOException {
+        checkOpen();
+        log.force();
+    }
+
+    /**
+     * Rewrites the log with one CUSTOMER and one COUNT record per customer. The new log is built
+     * in a separate file and only replaces the current one once it is complete; if anything
+     * fails on the way, the current log stays in use.
+     */
+    public synchronized void compact() throws IOException {
+        checkOpen();
+        File compacted = new File(file.getPath() + ".tmp");
+        // Left over if a previous compaction was interrupted.
+        if (compacted.exists() && !compacted.delete()) {
+            throw new IOException("Could not delete " + compacted);
+        }
+        int size = HEADER_SIZE;
+        for (int id = 0; id < customerCount; id++) {
+            size += customerRecordSize(names[id]) + RECORD_HEADER_SIZE + 8;
+        }
+        RandomAccessFile compactedFile = new RandomAccessFile(compacted, "rw");
+        MappedByteBuffer compactedLog;
+        boolean replaced = false;
+        try {
+            compactedLog = map(compactedFile, Math.max(size * 2, INITIAL_MAPPING_SIZE));
+            compactedLog.putInt(0, MAGIC);
+            compactedLog.putInt(4, VERSION);
+            int pos = HEADER_SIZE;
+            for (int id = 0; id < customerCount; id++) {
+                byte[] name = names[id].getBytes(UTF_8);
+                compactedLog.putInt(pos + RECORD_HEADER_SIZE, id);
+                for (int i = 0; i < name.length; i++) {
+                    compactedLog.put(pos + RECORD_HEADER_SIZE + 4 + i, name[i]);
+                }
+                pos = commitRecord(compactedLog, pos, TYPE_CUSTOMER, 4 + name.length);
+                compactedLog.putInt(pos + RECORD_HEADER_SIZE, id);
+                compactedLog.putInt(pos + RECORD_HEADER_SIZE + 4, counts[id]);
+                pos = commitRecord(compactedLog, pos, TYPE_COUNT, 8);
+            }
+            compactedLog.force();
+            if (!compacted.renameTo(file)) {
+                throw new IOException("Could not replace " + file + " by " + compacted);
+            }
+            replaced = true;
+            swap(compactedFile, compactedLog);
+            position = pos;
+            ordersSinceCompaction = 0;
+        } finally {
+            if (!replaced) {
+                closeQuietly(compactedFile);
+                compacted.delete();
+            }
+        }
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (log == null) {
+            return;
+        }
+        log.force();
+        log = null;
+        randomAccessFile.close();
+    }
+
+    private void map(int size) throws IOException {
+        randomAccessFile = new RandomAccessFile(file, "rw");
+        boolean created = randomAccessFile.length() == 0;
+        log = map(randomAccessFile, size);
+        if (created) {
+            log.putInt(0, MAGIC);
+            log.putInt(4, VERSION);
+        }
+        position = HEADER_SIZE;
+    }
+
+    private static MappedByteBuffer map(RandomAccessFile target, int size) throws IOException {
+        if (target.length() < size) {
+            target.setLength(size);
+        }
+        return target.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+    }
+
+    /**
+     * Switches to {@code newLog}, mapped from {@code newFile}, and releases the current log.
+     */
+    private void swap(RandomAccessFile newFile, MappedByteBuffer newLog) {
+        RandomAccessFile oldFile = randomAccessFile;
+        randomAccessFile = newFile;
+        log = newLog;
+        // The new log is in use already; failing to close the old one only leaks its descriptor.
+        closeQuietly(oldFile);
+    }
+
+    private static void closeQuietly(RandomAccessFile file) {
+        try {
+            file.close();
+        } catch (IOException e) {
+            // Nothing left to do with it.
+        }
+    }
+
+    /**
+     * Rebuilds the index from the log and positions appends after the last valid record.
+     */
+    private void replay() throws IOException {
+        if (log.getInt(0) != MAGIC || log.getInt(4) != VERSION) {
+            throw new IOException(file + " is not an order log");
+        }
+        clearIndex();
+        ordersSinceCompaction = 0;
+        int pos = HEADER_SIZE;
+        int limit = log.capacity();
+        while (pos + RECORD_HEADER_SIZE <= limit) {
+            byte type = log.get(pos);
+            int length = log.get(pos + 1) & 0xFF;
+            if (type == 0 || length < 4 || pos + RECORD_HEADER_SIZE + length > limit
+                    || checksum(log, type, pos, length) != log.getShort(pos + 2)) {
+                break;
+            }
+            int payload = pos + RECORD_HEADER_SIZE;
+            int id = log.getInt(payload);
+            if (type == TYPE_CUSTOMER) {
+                byte[] name = new byte[length - 4];
+                for (int i = 0; i < name.length; i++) {
+                    name[i] = log.get(payload + 4 + i);
+                }
+                if (id != customerCount) {
+                    break;
+                }
+                insert(new String(name, UTF_8));
+            } else if (id < 0 || id >= customerCount) {
+                break;
+            } else if (type == TYPE_ORDER && length == 4) {
+                counts[id]++;
+                ordersSinceCompaction++;
+            } else if (type == TYPE_COUNT && length == 8) {
+                counts[id] = log.getInt(payload + 4);
+            } else {
+                break;
+            }
+            pos = payload + length;
+        }
+        position = pos;
+        // Wipe everything after the last valid record: a torn record, or records that reached
+        // storage before it, must not become visible again after the next crash.
+        for (int i = pos; i < limit; i++) {
+            if (log.get(i) != 0) {
+                log.put(i, (byte) 0);
+            }
+        }
+    }
+
+    private void checkOpen() throws IOException {
+        if (log == null) {
+            throw new IOException(file + " is closed");
+        }
+    }
+
+    private void checkId(int customerId) {
+        if (customerId < 0 || customerId >= customerCount) {
+            throw new IllegalArgumentException("Unknown customer id: " + customerId);
+        }
+    }
+
+    private int idFor(String customerName) throws IOException {
+        int id = find(customerName);
+        if (id < 0) {
+            id = customerCount;
+            appendCustomer(id, customerName);
+            insert(customerName);
+        }
+        return id;
+    }
+
+    private void appendCustomer(int id, String name) throws IOException {
+        byte[] bytes = name.getBytes(UTF_8);
+        if (bytes.length > MAX_NAME_LENGTH) {
+            throw new IOException("Customer name too long: " + name);
+        }
+        ensureCapacity(RECORD_HEADER_SIZE + 4 + bytes.length);
+        int payload = position + RECORD_HEADER_SIZE;
+        log.putInt(payload, id);
+        for (int i = 0; i < bytes.length; i++) {
+            log.put(payload + 4 + i, bytes[i]);
+        }
+        position = commitRecord(log, position, TYPE_CUSTOMER, 4 + bytes.length);
+    }
+
+    private void appendCount(int id, int count) throws IOException {
+        ensureCapacity(RECORD_HEADER_SIZE + 8);
+        int payload = position + RECORD_HEADER_SIZE;
+        log.putInt(payload, id);
+        log.putInt(payload + 4, count);
+        position = commitRecord(log, position, TYPE_COUNT, 8);
+    }
+
+    /**
+     * Completes the record at {@code pos} in {@code buffer} whose payload has been written. The
+     * type byte goes last so a record is only visible once it is complete.
+     *
+     * @return the position after the record
+     */
+    private static int commitRecord(MappedByteBuffer buffer, int pos, byte type, int length) {
+        buffer.put(pos + 1, (byte) length);
+        buffer.putShort(pos + 2, checksum(buffer, type, pos, length));
+        buffer.put(pos, type);
+        return pos + RECORD_HEADER_SIZE + length;
+    }
+
+    /**
+     * Fletcher-16 over the type, length and payload of the record at {@code pos}.
+     */
+    private static short checksum(MappedByteBuffer buffer, byte type, int pos, int length) {
+        int sum1 = (type & 0xFF) % 255;
+        int sum2 = sum1;
+        sum1 = (sum1 + length) % 255;
+        sum2 = (sum2 + sum1) % 255;
+        int payload = pos + RECORD_HEADER_SIZE;
+        for (int i = 0; i < length; i++) {
+            sum1 = (sum1 + (buffer.get(payload + i) & 0xFF)) % 255;
+            sum2 = (sum2 + sum1) % 255;
+        }
+        return (short) ((sum2 << 8) | sum1);
+    }
+
+    private void ensureCapacity(int recordSize) throws IOException {
+        if (position + recordSize <= log.capacity()) {
+            return;
+        }
+        int used = position;
+        compact();
+        if (position + recordSize > log.capacity() || position > used / 2) {
+            // Compaction freed too little: grow the mapping. The file is mapped again before the
+            // current mapping is released, so a failure leaves the store as it was.
+            int size = log.capacity() * 2;
+            RandomAccessFile grownFile = new RandomAccessFile(file, "rw");
+            boolean grown = false;
+            try {
+                swap(grownFile, map(grownFile, size));
+                grown = true;
+            } finally {
+                if (!grown) {
+                    closeQuietly(grownFile);
+                }
+            }
+        }
+    }
+
+    private static int customerRecordSize(String name) {
+        return RECORD_HEADER_SIZE + 4 + name.getBytes(UTF_8).length;
+    }
+
+    private void clearIndex() {
+        for (int i = 0; i < customerCount; i++) {
+            names[i] = null;
+            counts[i] = 0;
+        }
+        for (int i = 0; i < table.length; i++) {
+            table[i] = 0;
+        }
+        customerCount = 0;
+    }
+
+    private int find(String name) {
+        int mask = table.length - 1;
+        for (int i = name.hashCode() & mask; ; i = (i + 1) & mask) {
+            int entry = table[i];
+            if (entry == 0) {
+                return -1;
+            }
+            if (names[entry - 1].equals(name)) {
+                return entry - 1;
+            }
+        }
+    }
+
+    private void insert(String name) {
+        if (customerCount == names.length) {
+            String[] grownNames = new String[names.length * 2];
+            System.arraycopy(names, 0, grownNames, 0, customerCount);
+            names = grownNames;
+            int[] grownCounts = new int[counts.length * 2];
+            System.arraycopy(counts, 0, grownCounts, 0, customerCount);
+            counts = grownCounts;
+        }
+        int id = customerCount++;
+        names[id] = name;
+        counts[id] = 0;
+        // Keep the table at most half full.
+        if (customerCount * 2 > table.length) {
+            table = new int[table.length * 2];
+            for (int i = 0; i < customerCount; i++) {
+                place(i);
+            }
+        } else {
+            place(id);
+        }
+    }
+
+    private void place(int id) {
+        int mask = table.length - 1;
+        int i = names[id].hashCode() & mask;
+        while (table[i] != 0) {
+            i = (i + 1) & mask;
+        }
+        table[i] = id + 1;
+    }
+}
@@ -0,0 +1,173 @@
+package com.barrysbeerbar.reader;
+
+import com.barrysbeerbar.apdu.ApduConnection;
+import com.barrysbeerbar.apdu.ApduSession;
+import com.barrysbeerbar.apdu.CommandApdu;
+import com.barrysbeerbar.apdu.Iso7816;
+import com.barrysbeerbar.apdu.LoyaltyCard;
+import com.barrysbeerbar.apdu.ResponseApdu;
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+
+/**
+ * Takes an order from an emulated loyalty card in a single tap.
+ *
+ * <p>One {@link ApduSession} runs the whole script:
+ * <ol>
+ *     <li>SELECT the loyalty card AID, which answers with the card holder name,</li>
+ *     <li>look up the customer id of the name with the {@link CustomerLookup}, ending the
+ *     transaction if there is none,</li>
+ *     <li>GET DATA of the order counter on the card,</li>
+ *     <li>INCREASE the order counter by one,</li>
+ *     <li>GET DATA of the order counter again to verify the increment.</li>
+ * </ol>
+ * Cards that predate the order counter answer 0x0000 to the counter steps; the order is then
+ * still taken, based on the name alone.
+ *
+ * <p>On a card with a counter, {@link #run(ApduConnection, CustomerLookup)} only reports the
+ * order taken once INCREASE succeeded and was verified. The card counts the order as soon as it
+ * executes INCREASE, though: if the tap ends before its response arrives, or the verification
+ * fails, the card has counted an order the reader did not record, and the card stays one ahead
+ * of the order store for that customer. Orders are never recorded without the card counting
+ * them. {@link #isIncreaseSent()} tells whether the card may have counted the order, so that a
+ * failed transaction is not simply retried.
+ *
+ * <p>Instances are reused for every tag and are not thread-safe.
+ */
+public final class OrderTransaction {
+
+    /**
+     * Maps the card holder name to a customer, before the card counts the order.
+     */
+    public interface CustomerLookup {
+        /**
+         * @return the customer id, or -1 to end the transaction without touching the counter
+         */
+        int lookUp(String customerName);
+    }
+
+    private static final Charset US_ASCII = Charset.forName("US-ASCII");
+
+    // The commands never change, so they are built once.
+    private static final byte[] GET_ORDER_COUNT_APDU = new CommandApdu()
+            .set(Iso7816.CLA_ISO, Iso7816.INS_GET_DATA, LoyaltyCard.TAG_ORDER_COUNT >>> 8,
+                    LoyaltyCard.TAG_ORDER_COUNT & 0xFF, new byte[0], 0, 0,
+                    LoyaltyCard.ORDER_COUNT_LENGTH)
+            .toByteArray();
+    private static final byte[] INCREASE_ORDER_COUNT_APDU = new CommandApdu()
+            .set(LoyaltyCard.CLA_PROPRIETARY, LoyaltyCard.INS_INCREASE, 0, 0, new byte[]{1}, 0, 1,
+                    LoyaltyCard.ORDER_COUNT_LENGTH)
+            .toByteArray();
+
+    private final ApduSession session = new ApduSession();
+
+    private String customerName;
+    private int customerId;
+    private boolean increaseSent;
+    // Order count stored on the card after this transaction, -1 if the card has no counter.
+    private int cardOrderCount;
+
+    public ApduSession getSession() {
+        return session;
+    }
+
+    /**
+     * Runs the transaction, connecting to and closing {@code connection}.
+     *
+     * @return true if the card holder name was read and is a customer; the counter steps are
+     * optional
+     * @throws IOException if the exchange fails or the card counter did not increment
+     */
+    public boolean run(ApduConnection connection, CustomerLookup lookup) throws IOException {
+        customerName = null;
+        customerId = -1;
+        increaseSent = false;
+        cardOrderCount = -1;
+        try {
+            session.open(connection);
+
+            // If AID is successfully selected, 0x9000 is returned as the status word (last 2
+            // bytes of the result) by convention. Everything before the status word is
+            // optional payload, which is used here to hold the account number.
+            ResponseApdu response = session.send(LoyaltyCard.SELECT_APDU);
+            if (!response.isOk()) {
+                return false;
+            }
+            customerName = new String(response.getBuffer(), response.getDataOffset(),
+                    response.getDataLength(), US_ASCII);
+            customerId = lookup.lookUp(customerName);
+            if (customerId < 0) {
+                return false;
+            }
+
+            response = session.send(GET_ORDER_COUNT_APDU);
+            if (!isOrderCount(response)) {
+                return true;
+            }
+            int before = LoyaltyCard.readOrderCount(response);
+
+            increaseSent = true;
+            response = session.send(INCREASE_ORDER_COUNT_APDU);
+            if (!isOrderCount(response)) {
+                throw new IOException("INCREASE failed: " + Integer.toHexString(response.getSw()));
+            }
+            int increased = LoyaltyCard.readOrderCount(response);
+
+            response = session.send(GET_ORDER_COUNT_APDU);
+            if (!isOrderCount(response) || increased != before + 1
+                    || LoyaltyCard.readOrderCount(response) != increased) {
+                throw new IOException("Order counter on card did not increment from " + before);
+            }
+            cardOrderCount = increased;
+            return true;
+        } finally {
+            closeQuietly();
+        }
+    }
+
+    /**
+     * @return the card holder name read by the last run, or null
+     */
+    public String getCustomerName() {
+        return customerName;
+    }
+
+    /**
+     * @return the customer id the last run looked up, or -1
+     */
+    public int getCustomerId() {
+        return customerId;
+    }
+
+    /**
+     * @return true if the last run sent INCREASE, after which the card may have counted the
+     * order even if the run failed
+     */
+    public boolean isIncreaseSent() {
+        return increaseSent;
+    }
+
+    /**
+     * @return the order counter on the card after the last run, -1 if the card has none
+     */
+    public int getCardOrderCount() {
+        return cardOrderCount;
+    }
+
+    /**
+     * Closes the session without replacing the outcome of the transaction, which is decided by
+     * then: a card that leaves the field right after the last response fails to close.
+     */
+    private void closeQuietly() {
+        try {
+            session.close();
+        } catch (IOException e) {
+            // Nothing left to exchange.
+        }
+    }
+
+    private static boolean isOrderCount(ResponseApdu response) {
+        return response.isOk() && response.getDataLength() == LoyaltyCard.ORDER_COUNT_LENGTH;
+    }
+}
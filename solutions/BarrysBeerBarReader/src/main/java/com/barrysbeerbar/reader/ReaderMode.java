@@ -0,0 +1,146 @@
+package com.barrysbeerbar.reader;
+
+/**
+ * What the reader does with the next tag.
+ *
+ * <pre>
+ *   any --startRegistering(name)--&gt; REGISTERING   --registered(g)--------------&gt; IDLE
+ *   any --startTakingOrder()------&gt; TAKING_ORDER  --orderTaken(g)--------------&gt; IDLE
+ *   any --startTakingOrders(cap)--&gt; TAKING_ORDERS --orderTaken(g), cap reached--&gt; IDLE
+ *   any --stop()------------------&gt; IDLE
+ * </pre>
+ *
+ * The UI thread starts and stops modes, the NFC reader thread completes them. Every change of
+ * mode starts a new generation; the reader takes {@link #getGeneration()} before it looks at the
+ * mode and passes it to the completion, which is ignored if the generation has changed since.
+ * So a tag that was being handled while the bartender switched modes, even to the same mode
+ * again, cannot end the new mode or count towards its cap.
+ */
+public final class ReaderMode {
+
+    public enum Mode {
+        IDLE,
+        /** Writes the customer to register to the next tag. */
+        REGISTERING,
+        /** Takes one order, from the next tag. */
+        TAKING_ORDER,
+        /** Takes an order from every tag, until stopped or until the order cap is reached. */
+        TAKING_ORDERS
+    }
+
+    private Mode mode = Mode.IDLE;
+    private int generation;
+    private String customerToRegister;
+    private int orderCap;
+    private int ordersTaken;
+
+    public synchronized Mode getMode() {
+        return mode;
+    }
+
+    /**
+     * @return the generation of the current mode, to pass to {@link #registered(int)} and
+     * {@link #orderTaken(int)}; read it before the mode
+     */
+    public synchronized int getGeneration() {
+        return generation;
+    }
+
+    /**
+     * @return the name to write in {@link Mode#REGISTERING}, null in other modes
+     */
+    public synchronized String getCustomerToRegister() {
+        return customerToRegister;
+    }
+
+    /**
+     * @return the number of orders taken since {@link Mode#TAKING_ORDERS} was started
+     */
+    public synchronized int getOrdersTaken() {
+        return ordersTaken;
+    }
+
+    /**
+     * @return the order cap of {@link Mode#TAKING_ORDERS}, 0 if there is none
+     */
+    public synchronized int getOrderCap() {
+        return orderCap;
+    }
+
+    public synchronized void stop() {
+        enter(Mode.IDLE);
+    }
+
+    /**
+     * @return the generation of the new mode
+     */
+    public synchronized int startRegistering(String customerName) {
+        enter(Mode.REGISTERING);
+        customerToRegister = customerName;
+        return generation;
+    }
+
+    /**
+     * @return the generation of the new mode
+     */
+    public synchronized int startTakingOrder() {
+        enter(Mode.TAKING_ORDER);
+        return generation;
+    }
+
+    /**
+     * @param orderCap Number of orders after which the mode stops, 0 to take orders until
+     *                 stopped
+     * @return the generation of the new mode
+     */
+    public synchronized int startTakingOrders(int orderCap) {
+        enter(Mode.TAKING_ORDERS);
+        this.orderCap = orderCap;
+        return generation;
+    }
+
+    /**
+     * Completes {@link Mode#REGISTERING}, if it is still the one of {@code generation}.
+     *
+     * @return true if the mode changed
+     */
+    public synchronized boolean registered(int generation) {
+        if (generation != this.generation || mode != Mode.REGISTERING) {
+            return false;
+        }
+        enter(Mode.IDLE);
+        return true;
+    }
+
+    /**
+     * Counts an order taken in {@link Mode#TAKING_ORDER} or {@link Mode#TAKING_ORDERS}, if it is
+     * still the one of {@code generation}.
+     *
+     * @return true if the mode changed, i.e. the single order was taken or the cap was reached
+     */
+    public synchronized boolean orderTaken(int generation) {
+        if (generation != this.generation) {
+            return false;
+        }
+        if (mode == Mode.TAKING_ORDER) {
+            enter(Mode.IDLE);
+            return true;
+        }
+        if (mode == Mode.TAKING_ORDERS) {
+            ordersTaken++;
+            if (orderCap > 0 && ordersTaken >= orderCap) {
+                enter(Mode.IDLE);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void enter(Mode next) {
+        mode = next;
+        generation++;
+        customerToRegister = null;
+        orderCap = 0;
+        ordersTaken = 0;
+    }
+}
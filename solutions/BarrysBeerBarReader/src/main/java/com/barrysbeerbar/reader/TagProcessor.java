@@ -0,0 +1,301 @@
+package com.barrysbeerbar.reader;
+
+import com.barrysbeerbar.apdu.ApduConnection;
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+
+/**
+ * The reader's order pipeline: handles a discovered tag according to the {@link ReaderMode}.
+ *
+ * <p>In {@link ReaderMode.Mode#REGISTERING} the customer gets an id in the {@link OrderStore}
+ * and the id is written to the tag; in the order taking modes repeated taps are dropped by the
+ * {@link TapDebouncer}, the customer is read from the tag and the order is queued with the
+ * {@link OrderCommitter}. Emulated loyalty cards need no registration: their card holder is
+ * registered on the first order. Outcomes are reported to the {@link Listener}.
+ *
+ * <p>Tags are only accessed through {@link NfcTag}, so the pipeline runs the same on Android
+ * tags and on {@link com.barrysbeerbar.reader.sim simulated} ones. The mode, debouncer, rate,
+ * store and committer may be shared by several processors, but a processor reuses its buffers
+ * and must only be used by one thread at a time.
+ */
+public final class TagProcessor {
+
+    /**
+     * Receives the outcome of each tag, on the thread calling
+     * {@link #onTagDiscovered(NfcTag, long)}.
+     */
+    public interface Listener {
+        void onRegistered(int customerId);
+
+        void onRegistrationFailed();
+
+        /**
+         * The tag could not be read, or holds a customer that is not registered.
+         */
+        void onReadFailed();
+
+        /**
+         * The order could not be queued, e.g. because the committer is overloaded.
+         */
+        void onOrderFailed(int customerId);
+
+        void onOrderCapReached(int orderCap);
+
+        /**
+         * The mode changed, or the progress of {@link ReaderMode.Mode#TAKING_ORDERS} did.
+         */
+        void onModeChanged();
+
+        /**
+         * Reports an exchange with a tag or the order store that failed.
+         */
+        void onError(String message, IOException e);
+    }
+
+    // First user page of MIFARE Ultralight.
+    public static final int PAGE_OFFSET = 4;
+
+    private static final Charset US_ASCII = Charset.forName("US-ASCII");
+
+    private final ReaderMode mode;
+    private final TapDebouncer tapDebouncer;
+    private final OrderRate orderRate;
+    private final OrderStore orderStore;
+    private final OrderCommitter orderCommitter;
+    private final Listener listener;
+
+    // Reused for every IsoDep tag.
+    private final OrderTransaction orderTransaction = new OrderTransaction();
+    // Reused for every MIFARE Ultralight tag.
+    private final UltralightWriter ultralightWriter = new UltralightWriter();
+    private final byte[] tagPage = new byte[CustomerTag.LENGTH];
+    // Set by readTag: the card was sent INCREASE and may have counted the order already.
+    private boolean increaseSent;
+    private final OrderTransaction.CustomerLookup cardHolderLookup =
+            new OrderTransaction.CustomerLookup() {
+                @Override
+                public int lookUp(String customerName) {
+                    return registerCustomer(customerName.trim());
+                }
+            };
+
+    /**
+     * @param orderStore     Null if the order log could not be opened; every tag then fails
+     * @param orderCommitter Null if the order log could not be opened
+     */
+    public TagProcessor(ReaderMode mode, TapDebouncer tapDebouncer, OrderRate orderRate,
+                        OrderStore orderStore, OrderCommitter orderCommitter, Listener listener) {
+        this.mode = mode;
+        this.tapDebouncer = tapDebouncer;
+        this.orderRate = orderRate;
+        this.orderStore = orderStore;
+        this.orderCommitter = orderCommitter;
+        this.listener = listener;
+    }
+
+    public OrderTransaction getOrderTransaction() {
+        return orderTransaction;
+    }
+
+    public UltralightWriter getUltralightWriter() {
+        return ultralightWriter;
+    }
+
+    /**
+     * Handles a tag according to the current mode.
+     *
+     * @param nowMillis Current time of a monotonic clock, e.g. SystemClock.elapsedRealtime()
+     * @return false if the tap was ignored as a repeat of a recent tap
+     */
+    public boolean onTagDiscovered(NfcTag tag, long nowMillis) {
+        // Before the mode, so the completion is dropped if the mode changes in between.
+        int generation = mode.getGeneration();
+        ReaderMode.Mode current = mode.getMode();
+        if (current == ReaderMode.Mode.REGISTERING) {
+            String customerToRegister = mode.getCustomerToRegister();
+            int customerId = customerToRegister != null
+                    ? registerCustomer(customerToRegister.trim()) : -1;
+            if (customerId >= 0 && writeTag(tag, customerId)) {
+                listener.onRegistered(customerId);
+            } else {
+                listener.onRegistrationFailed();
+            }
+            if (mode.registered(generation)) {
+                listener.onModeChanged();
+            }
+        } else if (current == ReaderMode.Mode.TAKING_ORDER
+                || current == ReaderMode.Mode.TAKING_ORDERS) {
+            if (!tapDebouncer.accept(tag.getId(), nowMillis)) {
+                return false;
+            }
+            int customerId = readTag(tag);
+            if (customerId < 0) {
+                allowRetry(tag);
+                listener.onReadFailed();
+            } else if (orderCommitter == null || !orderCommitter.submit(customerId)) {
+                allowRetry(tag);
+                listener.onOrderFailed(customerId);
+            } else {
+                orderRate.record(nowMillis);
+                int cap = mode.getOrderCap();
+                if (mode.orderTaken(generation) && current == ReaderMode.Mode.TAKING_ORDERS) {
+                    listener.onOrderCapReached(cap);
+                }
+                // Also reports the progress while taking orders continuously.
+                listener.onModeChanged();
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Lets the bartender retry with the same card right away, unless the card may have counted
+     * the order: a retry would count it a second time.
+     */
+    private void allowRetry(NfcTag tag) {
+        if (!increaseSent) {
+            tapDebouncer.forget(tag.getId());
+        }
+    }
+
+    /**
+     * Looks up the id of a customer in the {@link OrderStore}, adding new customers.
+     *
+     * @return the customer id, or -1 if the customer could not be registered
+     */
+    private int registerCustomer(String customerName) {
+        if (orderStore == null || customerName.isEmpty()) {
+            return -1;
+        }
+        int customerId = orderStore.getId(customerName);
+        if (customerId >= 0) {
+            return customerId;
+        }
+        // A new customer would get an id that does not fit on a tag.
+        if (orderStore.getCustomerCount() > CustomerTag.MAX_ID) {
+            return -1;
+        }
+        try {
+            customerId = orderStore.register(customerName);
+            // The id is about to be written to a tag or counted on a card, make sure it survives
+            // a reboot.
+            orderStore.sync();
+            return customerId;
+        } catch (IOException e) {
+            listener.onError("Could not register customer", e);
+            return -1;
+        }
+    }
+
+    /**
+     * Looks up the id of a registered customer, without touching the log: MIFARE Ultralight tags
+     * are only registered in {@link ReaderMode.Mode#REGISTERING}.
+     *
+     * @return the customer id, or -1 if the customer is not registered
+     */
+    private int findCustomer(String customerName) {
+        return orderStore != null ? orderStore.getId(customerName) : -1;
+    }
+
+    /**
+     * @return false if the tag could not be written
+     */
+    private boolean writeTag(NfcTag tag, int customerId) {
+        UltralightTag mifare = tag.getUltralight();
+        if (mifare != null) {
+            return writeMifareTag(mifare, customerId);
+        }
+        return true;
+    }
+
+    /**
+     * @return the id of the customer, or -1 if the tag could not be read
+     */
+    private int readTag(NfcTag tag) {
+        increaseSent = false;
+        UltralightTag mifare = tag.getUltralight();
+        if (mifare != null) {
+            return readMifareTag(mifare);
+        }
+
+        ApduConnection isoDep = tag.getIsoDep();
+        if (isoDep != null) {
+            return readIsoDepTag(isoDep);
+        }
+
+        return -1;
+    }
+
+    /**
+     * Writes the {@link CustomerTag} page of {@code customerId} to {@link #PAGE_OFFSET}, unless
+     * the tag already holds it.
+     *
+     * @return false if the tag could not be written or verified
+     */
+    private boolean writeMifareTag(UltralightTag mifare, int customerId) {
+        try {
+            mifare.connect();
+            CustomerTag.encode(customerId, tagPage, 0);
+            ultralightWriter.write(mifare, PAGE_OFFSET, tagPage);
+        } catch (IOException e) {
+            listener.onError("IOException while writing MifareUltralight...", e);
+            return false;
+        } finally {
+            close(mifare);
+        }
+        return true;
+    }
+
+    /**
+     * Reads the customer id from {@link #PAGE_OFFSET}. Tags registered before customer ids hold
+     * the customer name padded to 16 characters instead; these customers are looked up by name,
+     * as are pages that do not hold the id of a known customer.
+     *
+     * @return the customer id, or -1 if the tag could not be read or holds an unknown customer
+     */
+    private int readMifareTag(UltralightTag mifare) {
+        try {
+            mifare.connect();
+            byte[] payload = mifare.readPages(PAGE_OFFSET);
+            int customerId = CustomerTag.decode(payload, 0);
+            if (customerId >= 0 && orderStore != null && orderStore.getName(customerId) != null) {
+                return customerId;
+            }
+            return findCustomer(new String(payload, US_ASCII).trim());
+        } catch (IOException e) {
+            listener.onError("IOException while reading MifareUltralight...", e);
+        } finally {
+            close(mifare);
+        }
+        return -1;
+    }
+
+    /**
+     * Runs an {@link OrderTransaction} on an emulated loyalty card: selects it, registers the
+     * card holder if needed, increments the order counter on the card and verifies it, all over
+     * one connection.
+     *
+     * @return the id of the card holder, or -1 if the transaction failed
+     */
+    private int readIsoDepTag(ApduConnection isoDep) {
+        try {
+            if (orderTransaction.run(isoDep, cardHolderLookup)) {
+                return orderTransaction.getCustomerId();
+            }
+        } catch (IOException e) {
+            listener.onError("Error communicating with card", e);
+        } finally {
+            increaseSent = orderTransaction.isIncreaseSent();
+        }
+        return -1;
+    }
+
+    private void close(UltralightTag mifare) {
+        try {
+            mifare.close();
+        } catch (IOException e) {
+            listener.onError("Error closing tag...", e);
+        }
+    }
+}
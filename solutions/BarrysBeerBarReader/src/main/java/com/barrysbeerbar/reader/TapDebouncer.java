@@ -0,0 +1,112 @@
+package com.barrysbeerbar.reader;
+
+/**
+ * Drops repeated taps of the same card.
+ *
+ * <p>Android reports a card again and again while it is held near the reader. This cache
+ * remembers the UIDs ({@code Tag.getId()}) of the last cards and rejects a tap of a card that
+ * was seen less than the debounce window ago, without touching the radio. Every rejected tap
+ * restarts the window, so a card that stays in the field is only handled once.
+ *
+ * <p>Note that phones emulating a card usually present a new random UID on every activation, so
+ * for them only the repeats within one activation are caught.
+ *
+ * <p>The cache is bounded: it keeps a fixed number of entries, preallocated up front, and
+ * replaces the oldest entry when a new card shows up. Lookups scan the entries, which is faster
+ * than hashing for the handful of cards seen within a window.
+ */
+public final class TapDebouncer {
+
+    // ISO 14443-3 UIDs are 4, 7 or 10 bytes.
+    private static final int MAX_UID_LENGTH = 10;
+
+    private final long windowMillis;
+    private final byte[][] uids;
+    private final int[] uidLengths;
+    private final long[] lastSeen;
+    private int next;
+
+    private long hits;
+    private long misses;
+
+    /**
+     * @param capacity Number of cards remembered
+     * @param windowMillis Time after which a card is accepted again
+     */
+    public TapDebouncer(int capacity, long windowMillis) {
+        this.windowMillis = windowMillis;
+        this.uids = new byte[capacity][MAX_UID_LENGTH];
+        this.uidLengths = new int[capacity];
+        this.lastSeen = new long[capacity];
+    }
+
+    /**
+     * Registers a tap.
+     *
+     * @param uid UID of the tapped card
+     * @param nowMillis Current time of a monotonic clock, e.g. SystemClock.elapsedRealtime()
+     * @return true if the tap should be handled, false if it repeats a recent tap
+     */
+    public synchronized boolean accept(byte[] uid, long nowMillis) {
+        int slot = find(uid);
+        if (slot >= 0 && nowMillis - lastSeen[slot] < windowMillis) {
+            lastSeen[slot] = nowMillis;
+            hits++;
+            return false;
+        }
+        misses++;
+        if (slot < 0) {
+            slot = next;
+            next = (next + 1) % uids.length;
+            int length = Math.min(uid.length, MAX_UID_LENGTH);
+            System.arraycopy(uid, 0, uids[slot], 0, length);
+            uidLengths[slot] = length;
+        }
+        lastSeen[slot] = nowMillis;
+        return true;
+    }
+
+    /**
+     * Forgets a card, e.g. because handling its tap failed and it should be accepted again
+     * right away.
+     */
+    public synchronized void forget(byte[] uid) {
+        int slot = find(uid);
+        if (slot >= 0) {
+            uidLengths[slot] = 0;
+        }
+    }
+
+    /**
+     * @return the number of taps rejected as repeats
+     */
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    /**
+     * @return the number of taps accepted
+     */
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    private int find(byte[] uid) {
+        int length = Math.min(uid.length, MAX_UID_LENGTH);
+        for (int slot = 0; slot < uids.length; slot++) {
+            if (uidLengths[slot] == length && length > 0 && equals(uids[slot], uid, length)) {
+                return slot;
+            }
+        }
+        return -1;
+    }
+
+    private static boolean equals(byte[] a, byte[] b, int length) {
+        for (int i = 0; i < length; i++) {
+            if (a[i] != b[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,29 @@
+package com.barrysbeerbar.reader;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * A MIFARE Ultralight tag: memory of 4 byte pages, read four pages at a time.
+ *
+ * <p>Implemented on top of {@code android.nfc.tech.MifareUltralight} by the reader app, and by
+ * {@link com.barrysbeerbar.reader.sim.SimulatedUltralightTag} on a plain JVM.
+ */
+public interface UltralightTag extends Closeable {
+
+    int PAGE_SIZE = 4;
+
+    void connect() throws IOException;
+
+    /**
+     * Reads four pages (16 bytes) starting at {@code pageOffset}.
+     */
+    byte[] readPages(int pageOffset) throws IOException;
+
+    /**
+     * Writes one page.
+     *
+     * @param data Exactly {@link #PAGE_SIZE} bytes
+     */
+    void writePage(int pageOffset, byte[] data) throws IOException;
+}
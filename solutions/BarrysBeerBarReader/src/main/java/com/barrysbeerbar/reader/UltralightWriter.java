@@ -0,0 +1,73 @@
+package com.barrysbeerbar.reader;
+
+import java.io.IOException;
+
+/**
+ * Writes consecutive pages of a MIFARE Ultralight tag, skipping pages that already hold the
+ * right bytes.
+ *
+ * <p>One READ command returns four pages (16 bytes), so the current content is fetched with a
+ * single {@link UltralightTag#readPages(int)}, only the pages that differ are written and the
+ * result is verified with one more read over the same connection. Re-registering a card that
+ * already holds most of the bytes then costs fewer radio round trips and less tag wear.
+ *
+ * <p>Instances reuse their page buffer and are not thread-safe.
+ */
+public final class UltralightWriter {
+
+    // Number of pages returned by one readPages call.
+    public static final int PAGES_PER_READ = 4;
+    public static final int MAX_LENGTH = PAGES_PER_READ * UltralightTag.PAGE_SIZE;
+
+    private final byte[] page = new byte[UltralightTag.PAGE_SIZE];
+    private int pagesWritten;
+
+    /**
+     * Writes {@code data} to the pages starting at {@code firstPage} of a connected tag.
+     *
+     * @param data Up to 16 bytes; its length must be a multiple of the page size
+     * @throws IOException if the tag is lost or does not hold {@code data} afterwards
+     */
+    public void write(UltralightTag tag, int firstPage, byte[] data) throws IOException {
+        if (data.length > MAX_LENGTH || data.length % UltralightTag.PAGE_SIZE != 0) {
+            throw new IllegalArgumentException("Cannot write " + data.length + " bytes");
+        }
+        pagesWritten = 0;
+        int changed = changedPages(tag.readPages(firstPage), data);
+        if (changed == 0) {
+            return;
+        }
+        for (int i = 0; i < data.length / UltralightTag.PAGE_SIZE; i++) {
+            if ((changed & (1 << i)) != 0) {
+                System.arraycopy(data, i * UltralightTag.PAGE_SIZE, page, 0, page.length);
+                tag.writePage(firstPage + i, page);
+                pagesWritten++;
+            }
+        }
+        if (changedPages(tag.readPages(firstPage), data) != 0) {
+            throw new IOException("Verification of pages " + firstPage + " and up failed");
+        }
+    }
+
+    /**
+     * @return the number of pages written by the last {@link #write} call
+     */
+    public int getPagesWritten() {
+        return pagesWritten;
+    }
+
+    /**
+     * Compares the pages read from a tag with the pages to write.
+     *
+     * @return a bit mask with bit {@code i} set if page {@code i} differs
+     */
+    public static int changedPages(byte[] current, byte[] data) {
+        int changed = 0;
+        for (int i = 0; i < data.length; i++) {
+            if (i >= current.length || current[i] != data[i]) {
+                changed |= 1 << (i / UltralightTag.PAGE_SIZE);
+            }
+        }
+        return changed;
+    }
+}
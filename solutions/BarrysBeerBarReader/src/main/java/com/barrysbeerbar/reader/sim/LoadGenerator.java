@@ -0,0 +1,262 @@
+package com.barrysbeerbar.reader.sim;
+
+import com.barrysbeerbar.apdu.LatencyRecorder;
+import com.barrysbeerbar.reader.OrderCommitter;
+import com.barrysbeerbar.reader.OrderRate;
+import com.barrysbeerbar.reader.OrderStore;
+import com.barrysbeerbar.reader.ReaderMode;
+import com.barrysbeerbar.reader.TagProcessor;
+import com.barrysbeerbar.reader.TapDebouncer;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Sends synthetic taps through the reader's order pipeline to find its capacity without NFC
+ * hardware.
+ *
+ * <p>A set of simulated cards, a mix of MIFARE Ultralight tags and emulated loyalty cards, is
+ * tapped as fast as possible by a number of threads, each with its own {@link TagProcessor} and
+ * its own share of the cards, all sharing one {@link OrderStore} and {@link OrderCommitter} like
+ * the reader app does. The Ultralight tags are registered first; the loyalty cards are
+ * registered by their first order, as in the app. At the end it reports the throughput of taps
+ * and of accepted orders, the latency percentiles of accepted and of rejected taps, how many
+ * orders were committed or failed and the commit statistics. Rejected taps, e.g. with the
+ * committer's queue full, return early, so they are kept out of the latency of accepted ones.
+ *
+ * <pre>
+ * LoadGenerator [threads] [seconds] [cards] [isoDepPercent] [linkLatencyMicros]
+ *               [commitWindowMillis]
+ * </pre>
+ * The defaults are 4 threads, 10 seconds, 1000 cards, 50% loyalty cards, no link latency and a
+ * 20 ms commit window. From Gradle: {@code gradlew :BarrysBeerBarReader:run -PloadArgs="8 30"}.
+ */
+public final class LoadGenerator {
+
+    private static final long DEBOUNCE_WINDOW_MILLIS = 3000;
+
+    private final int threads;
+    private final long durationNanos;
+    private final SimulatedTag[] cards;
+
+    private final ReaderMode mode = new ReaderMode();
+    private final TapDebouncer tapDebouncer = new TapDebouncer(16, DEBOUNCE_WINDOW_MILLIS);
+    private final OrderRate orderRate = new OrderRate();
+    private final OrderStore orderStore;
+    private final OrderCommitter orderCommitter;
+
+    // Taps that queued an order, and all others: ignored as repeats, unreadable or not queued.
+    private final LatencyRecorder acceptedLatency = new LatencyRecorder("accepted");
+    private final LatencyRecorder rejectedLatency = new LatencyRecorder("rejected");
+    private double tapsPerSecond;
+    private double ordersPerSecond;
+    private final AtomicLong ignoredTaps = new AtomicLong();
+    private final AtomicLong registrationFailures = new AtomicLong();
+    private final AtomicLong readFailures = new AtomicLong();
+    private final AtomicLong queueFailures = new AtomicLong();
+    private final AtomicLong errors = new AtomicLong();
+    private final AtomicLong committedOrders = new AtomicLong();
+    private final AtomicLong failedCommits = new AtomicLong();
+
+    /**
+     * Counts the outcomes of the taps of one thread and tells whether the last one was rejected.
+     */
+    private final class TapListener implements TagProcessor.Listener {
+        // Set by the processor's callbacks on the tapping thread.
+        boolean rejected;
+
+        @Override
+        public void onRegistered(int customerId) {
+        }
+
+        @Override
+        public void onRegistrationFailed() {
+            registrationFailures.incrementAndGet();
+        }
+
+        @Override
+        public void onReadFailed() {
+            rejected = true;
+            readFailures.incrementAndGet();
+        }
+
+        @Override
+        public void onOrderFailed(int customerId) {
+            rejected = true;
+            queueFailures.incrementAndGet();
+        }
+
+        @Override
+        public void onOrderCapReached(int orderCap) {
+        }
+
+        @Override
+        public void onModeChanged() {
+        }
+
+        @Override
+        public void onError(String message, IOException e) {
+            errors.incrementAndGet();
+        }
+    }
+
+    LoadGenerator(int threads, long durationNanos, int cardCount, int isoDepPercent,
+                  long linkLatencyNanos, long commitWindowMillis, File log) throws IOException {
+        if (threads < 1 || threads > cardCount) {
+            throw new IllegalArgumentException("Need between 1 and " + cardCount + " threads");
+        }
+        this.threads = threads;
+        this.durationNanos = durationNanos;
+        orderStore = OrderStore.open(log);
+        orderCommitter = new OrderCommitter(orderStore, commitWindowMillis,
+                new OrderCommitter.Listener() {
+                    @Override
+                    public void onOrderCommitted(int customerId, int orders) {
+                        (orders < 0 ? failedCommits : committedOrders).incrementAndGet();
+                    }
+                });
+        cards = new SimulatedTag[cardCount];
+        int isoDepCards = cardCount * isoDepPercent / 100;
+        for (int i = 0; i < cardCount; i++) {
+            byte[] uid = {0x04, (byte) (i >>> 24), (byte) (i >>> 16), (byte) (i >>> 8), (byte) i,
+                    0x5A, 0x5A};
+            if (i < isoDepCards) {
+                cards[i] = SimulatedTag.isoDep(uid, new SimulatedIsoDepTag(
+                        new SimulatedLoyaltyCard(customerName(i)), linkLatencyNanos));
+            } else {
+                cards[i] = SimulatedTag.ultralight(uid,
+                        new SimulatedUltralightTag(uid, linkLatencyNanos));
+            }
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        int threads = args.length > 0 ? Integer.parseInt(args[0]) : 4;
+        int seconds = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+        int cards = args.length > 2 ? Integer.parseInt(args[2]) : 1000;
+        int isoDepPercent = args.length > 3 ? Integer.parseInt(args[3]) : 50;
+        long linkLatencyMicros = args.length > 4 ? Long.parseLong(args[4]) : 0;
+        long commitWindowMillis = args.length > 5 ? Long.parseLong(args[5]) : 20;
+
+        File log = File.createTempFile("orders", ".log");
+        log.deleteOnExit();
+        if (!log.delete()) {
+            throw new IOException("Could not delete " + log);
+        }
+        LoadGenerator generator = new LoadGenerator(threads, TimeUnit.SECONDS.toNanos(seconds),
+                cards, isoDepPercent, TimeUnit.MICROSECONDS.toNanos(linkLatencyMicros),
+                commitWindowMillis, log);
+        System.out.println("Registering the MIFARE Ultralight cards...");
+        generator.register();
+        System.out.println("Tapping with " + threads + " threads for " + seconds + " s...");
+        generator.run();
+        System.out.println(generator.report());
+    }
+
+    /**
+     * Registers every MIFARE Ultralight card, as the bartender would one after the other.
+     */
+    void register() {
+        TagProcessor processor = newProcessor(new TapListener());
+        for (int i = 0; i < cards.length; i++) {
+            if (cards[i].getUltralight() == null) {
+                continue;
+            }
+            mode.startRegistering(customerName(i));
+            processor.onTagDiscovered(cards[i], now());
+        }
+    }
+
+    /**
+     * Taps random cards from all threads in continuous order taking mode, then commits the
+     * queued orders.
+     */
+    void run() throws InterruptedException, IOException {
+        mode.startTakingOrders(0);
+        final long start = System.nanoTime();
+        Thread[] workers = new Thread[threads];
+        orderCommitter.start();
+        for (int t = 0; t < threads; t++) {
+            final int thread = t;
+            workers[t] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    tap(thread, start + durationNanos);
+                }
+            }, "Tapper-" + t);
+            workers[t].start();
+        }
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        long elapsedNanos = System.nanoTime() - start;
+        tapsPerSecond = (acceptedLatency.getCount() + rejectedLatency.getCount()) * 1e9
+                / elapsedNanos;
+        ordersPerSecond = acceptedLatency.getCount() * 1e9 / elapsedNanos;
+        mode.stop();
+        orderCommitter.close();
+    }
+
+    private void tap(int thread, long deadline) {
+        TapListener listener = new TapListener();
+        TagProcessor processor = newProcessor(listener);
+        Random random = new Random(thread);
+        // Each thread taps its own cards, a card is never in two fields at once.
+        int perThread = cards.length / threads;
+        int first = thread * perThread;
+        int count = thread == threads - 1 ? cards.length - first : perThread;
+        while (System.nanoTime() < deadline) {
+            SimulatedTag card = cards[first + random.nextInt(count)];
+            listener.rejected = false;
+            long start = System.nanoTime();
+            boolean handled = processor.onTagDiscovered(card, now());
+            if (handled && !listener.rejected) {
+                acceptedLatency.recordSince(start);
+            } else {
+                rejectedLatency.recordSince(start);
+            }
+            if (!handled) {
+                ignoredTaps.incrementAndGet();
+            }
+        }
+    }
+
+    String report() {
+        long storedOrders = 0;
+        for (int id = 0; orderStore.getName(id) != null; id++) {
+            storedOrders += orderStore.getOrders(id);
+        }
+        return new StringBuilder()
+                .append("taps=").append(acceptedLatency.getCount() + rejectedLatency.getCount())
+                .append(" taps/s=").append((long) tapsPerSecond)
+                .append(" accepted orders/s=").append((long) ordersPerSecond)
+                .append(" ignored=").append(ignoredTaps.get()).append('\n')
+                .append(acceptedLatency).append('\n')
+                .append(rejectedLatency).append('\n')
+                .append("orders committed=").append(committedOrders.get())
+                .append(" stored=").append(storedOrders)
+                .append(" failed: commit=").append(failedCommits.get())
+                .append(" queue full=").append(queueFailures.get())
+                .append(" read=").append(readFailures.get())
+                .append(" registration=").append(registrationFailures.get())
+                .append(" errors=").append(errors.get()).append('\n')
+                .append("committer: ").append(orderCommitter)
+                .toString();
+    }
+
+    private TagProcessor newProcessor(TagProcessor.Listener listener) {
+        return new TagProcessor(mode, tapDebouncer, orderRate, orderStore, orderCommitter,
+                listener);
+    }
+
+    private static String customerName(int card) {
+        return "Customer " + card;
+    }
+
+    private static long now() {
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime());
+    }
+}
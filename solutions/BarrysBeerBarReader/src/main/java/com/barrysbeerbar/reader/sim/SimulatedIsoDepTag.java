@@ -0,0 +1,79 @@
+package com.barrysbeerbar.reader.sim;
+
+import com.barrysbeerbar.apdu.ApduConnection;
+import com.barrysbeerbar.apdu.Iso7816;
+
+import java.io.IOException;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * ISO-DEP tag simulated by passing every command APDU to a {@link Card} callback, the way
+ * Android passes them to a {@code HostApduService}.
+ */
+public final class SimulatedIsoDepTag implements ApduConnection {
+
+    /**
+     * The card behind the tag.
+     */
+    public interface Card {
+        /**
+         * @return the response APDU, including the status word
+         */
+        byte[] processCommandApdu(byte[] commandApdu);
+
+        /**
+         * The reader closed the connection.
+         */
+        void onDeactivated();
+    }
+
+    private final Card card;
+    private final long latencyNanos;
+    private boolean connected;
+
+    /**
+     * @param latencyNanos Time every command takes
+     */
+    public SimulatedIsoDepTag(Card card, long latencyNanos) {
+        this.card = card;
+        this.latencyNanos = latencyNanos;
+    }
+
+    @Override
+    public synchronized void connect() throws IOException {
+        if (connected) {
+            throw new IOException("Already connected");
+        }
+        connected = true;
+    }
+
+    @Override
+    public synchronized byte[] transceive(byte[] command) throws IOException {
+        if (!connected) {
+            throw new IOException("Not connected");
+        }
+        if (latencyNanos > 0) {
+            LockSupport.parkNanos(latencyNanos);
+        }
+        // The card gets its own copy, as it would after the radio link.
+        return card.processCommandApdu(command.clone());
+    }
+
+    @Override
+    public int getMaxTransceiveLength() {
+        return Iso7816.MAX_SHORT_NE + 5;
+    }
+
+    @Override
+    public boolean isExtendedLengthApduSupported() {
+        return false;
+    }
+
+    @Override
+    public synchronized void close() {
+        if (connected) {
+            connected = false;
+            card.onDeactivated();
+        }
+    }
+}
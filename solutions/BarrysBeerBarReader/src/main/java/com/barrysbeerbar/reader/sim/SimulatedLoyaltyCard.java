@@ -0,0 +1,87 @@
+package com.barrysbeerbar.reader.sim;
+
+import com.barrysbeerbar.apdu.CommandApdu;
+import com.barrysbeerbar.apdu.CommandDispatcher;
+import com.barrysbeerbar.apdu.CommandHandler;
+import com.barrysbeerbar.apdu.Iso7816;
+import com.barrysbeerbar.apdu.LoyaltyCard;
+import com.barrysbeerbar.apdu.ResponseApdu;
+
+import java.nio.charset.Charset;
+
+/**
+ * Minimal loyalty card for {@link SimulatedIsoDepTag}: answers SELECT with the card holder name
+ * and serves the order counter (GET DATA 01 01 and INCREASE), like BarrysBeerBarCard does.
+ */
+public final class SimulatedLoyaltyCard implements SimulatedIsoDepTag.Card {
+
+    private static final byte[] NOT_SELECTED_SW =
+            ResponseApdu.statusWordBytes(Iso7816.SW_CONDITIONS_NOT_SATISFIED);
+    private static final byte[] FILE_NOT_FOUND_SW =
+            ResponseApdu.statusWordBytes(Iso7816.SW_FILE_NOT_FOUND);
+    private static final byte[] WRONG_LENGTH_SW =
+            ResponseApdu.statusWordBytes(Iso7816.SW_WRONG_LENGTH);
+
+    private final CommandDispatcher dispatcher =
+            new CommandDispatcher(ResponseApdu.statusWordBytes(Iso7816.SW_UNKNOWN));
+    private final byte[] selectResponse;
+    private boolean selected;
+    private int orderCount;
+
+    public SimulatedLoyaltyCard(String cardHolderName) {
+        byte[] name = cardHolderName.getBytes(Charset.forName("US-ASCII"));
+        selectResponse = new byte[name.length + 2];
+        ResponseApdu.encode(selectResponse, 0, name, 0, name.length, Iso7816.SW_NO_ERROR);
+        dispatcher.register(Iso7816.CLA_ISO, Iso7816.INS_SELECT, Iso7816.P1_SELECT_BY_NAME,
+                Iso7816.P2_SELECT_FIRST, new CommandHandler() {
+                    @Override
+                    public byte[] handle(CommandApdu command) {
+                        selected = command.dataEquals(LoyaltyCard.AID);
+                        return selected ? selectResponse : FILE_NOT_FOUND_SW;
+                    }
+                });
+        dispatcher.register(Iso7816.CLA_ISO, Iso7816.INS_GET_DATA,
+                LoyaltyCard.TAG_ORDER_COUNT >>> 8, LoyaltyCard.TAG_ORDER_COUNT & 0xFF,
+                new CommandHandler() {
+                    @Override
+                    public byte[] handle(CommandApdu command) {
+                        return selected ? orderCountResponse() : NOT_SELECTED_SW;
+                    }
+                });
+        dispatcher.register(LoyaltyCard.CLA_PROPRIETARY, LoyaltyCard.INS_INCREASE, 0, 0,
+                new CommandHandler() {
+                    @Override
+                    public byte[] handle(CommandApdu command) {
+                        if (!selected) {
+                            return NOT_SELECTED_SW;
+                        }
+                        if (command.getNc() != 1) {
+                            return WRONG_LENGTH_SW;
+                        }
+                        orderCount += command.getBuffer()[command.getDataOffset()] & 0xFF;
+                        return orderCountResponse();
+                    }
+                });
+    }
+
+    @Override
+    public synchronized byte[] processCommandApdu(byte[] commandApdu) {
+        return dispatcher.dispatch(commandApdu);
+    }
+
+    @Override
+    public synchronized void onDeactivated() {
+        selected = false;
+        dispatcher.reset();
+    }
+
+    public synchronized int getOrderCount() {
+        return orderCount;
+    }
+
+    private byte[] orderCountResponse() {
+        byte[] response = new byte[LoyaltyCard.ORDER_COUNT_LENGTH + 2];
+        LoyaltyCard.encodeOrderCount(response, 0, orderCount);
+        return response;
+    }
+}
@@ -0,0 +1,44 @@
+package com.barrysbeerbar.reader.sim;
+
+import com.barrysbeerbar.apdu.ApduConnection;
+import com.barrysbeerbar.reader.NfcTag;
+import com.barrysbeerbar.reader.UltralightTag;
+
+/**
+ * {@link NfcTag} made of a simulated MIFARE Ultralight or ISO-DEP tag.
+ */
+public final class SimulatedTag implements NfcTag {
+
+    private final byte[] id;
+    private final UltralightTag ultralight;
+    private final ApduConnection isoDep;
+
+    private SimulatedTag(byte[] id, UltralightTag ultralight, ApduConnection isoDep) {
+        this.id = id;
+        this.ultralight = ultralight;
+        this.isoDep = isoDep;
+    }
+
+    public static SimulatedTag ultralight(byte[] id, UltralightTag ultralight) {
+        return new SimulatedTag(id, ultralight, null);
+    }
+
+    public static SimulatedTag isoDep(byte[] id, ApduConnection isoDep) {
+        return new SimulatedTag(id, null, isoDep);
+    }
+
+    @Override
+    public byte[] getId() {
+        return id;
+    }
+
+    @Override
+    public UltralightTag getUltralight() {
+        return ultralight;
+    }
+
+    @Override
+    public ApduConnection getIsoDep() {
+        return isoDep;
+    }
+}
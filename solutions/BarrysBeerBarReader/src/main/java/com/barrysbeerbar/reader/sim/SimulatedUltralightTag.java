@@ -0,0 +1,89 @@
+package com.barrysbeerbar.reader.sim;
+
+import com.barrysbeerbar.reader.UltralightTag;
+
+import java.io.IOException;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * MIFARE Ultralight tag simulated in memory: 16 pages of 4 bytes, the first four of which
+ * (UID, lock bytes and OTP) cannot be written.
+ *
+ * <p>Like the real tag, a read returns four pages and wraps around to page 0 at the end of the
+ * memory. Every command can be given a fixed latency to mimic the radio link.
+ */
+public final class SimulatedUltralightTag implements UltralightTag {
+
+    public static final int PAGES = 16;
+    private static final int FIRST_USER_PAGE = 4;
+    private static final int READ_LENGTH = 4 * PAGE_SIZE;
+
+    private final byte[] memory = new byte[PAGES * PAGE_SIZE];
+    private final long latencyNanos;
+    private boolean connected;
+    private long commands;
+
+    /**
+     * @param uid          UID stored in the first pages, at most 8 bytes
+     * @param latencyNanos Time every command takes
+     */
+    public SimulatedUltralightTag(byte[] uid, long latencyNanos) {
+        System.arraycopy(uid, 0, memory, 0, Math.min(uid.length, FIRST_USER_PAGE * PAGE_SIZE / 2));
+        this.latencyNanos = latencyNanos;
+    }
+
+    @Override
+    public synchronized void connect() throws IOException {
+        if (connected) {
+            throw new IOException("Already connected");
+        }
+        connected = true;
+    }
+
+    @Override
+    public synchronized byte[] readPages(int pageOffset) throws IOException {
+        command();
+        if (pageOffset < 0 || pageOffset >= PAGES) {
+            throw new IOException("Invalid page " + pageOffset);
+        }
+        byte[] pages = new byte[READ_LENGTH];
+        for (int i = 0; i < READ_LENGTH; i++) {
+            pages[i] = memory[(pageOffset * PAGE_SIZE + i) % memory.length];
+        }
+        return pages;
+    }
+
+    @Override
+    public synchronized void writePage(int pageOffset, byte[] data) throws IOException {
+        command();
+        if (pageOffset < FIRST_USER_PAGE || pageOffset >= PAGES) {
+            throw new IOException("Page " + pageOffset + " cannot be written");
+        }
+        if (data.length != PAGE_SIZE) {
+            throw new IllegalArgumentException("Must write " + PAGE_SIZE + " bytes");
+        }
+        System.arraycopy(data, 0, memory, pageOffset * PAGE_SIZE, PAGE_SIZE);
+    }
+
+    @Override
+    public synchronized void close() {
+        connected = false;
+    }
+
+    /**
+     * @return the number of READ and WRITE commands received
+     */
+    public synchronized long getCommandCount() {
+        return commands;
+    }
+
+    private void command() throws IOException {
+        if (!connected) {
+            throw new IOException("Not connected");
+        }
+        commands++;
+        if (latencyNanos > 0) {
+            LockSupport.parkNanos(latencyNanos);
+        }
+    }
+}
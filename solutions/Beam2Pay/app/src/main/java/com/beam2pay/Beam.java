@@ -17,8 +17,8 @@
 package com.beam2pay;
 
 import android.app.Activity;
+import android.app.AlertDialog;
 import android.content.Intent;
-import android.content.SharedPreferences;
 import android.nfc.NdefMessage;
 import android.nfc.NdefRecord;
 import android.nfc.NfcAdapter;
@@ -30,7 +30,9 @@ import android.os.Handler;
 import android.os.Message;
 import android.os.Parcelable;
 import android.provider.Settings;
+import android.text.Editable;
 import android.text.InputFilter;
+import android.text.TextWatcher;
 import android.view.Menu;
 import android.view.MenuInflater;
 import android.view.MenuItem;
@@ -38,16 +40,35 @@ import android.widget.EditText;
 import android.widget.TextView;
 import android.widget.Toast;
 
-import java.nio.ByteBuffer;
+import com.beam2pay.core.Cents;
+import com.beam2pay.core.TransferJournal;
+import com.beam2pay.core.TransferPayload;
+import com.nfcworkshop.format.MessageTemplate;
+
 import java.nio.charset.Charset;
-import java.text.DecimalFormat;
+import java.text.DateFormat;
+import java.util.Arrays;
+import java.util.Date;
 
 
 public class Beam extends Activity implements CreateNdefMessageCallback,
-        OnNdefPushCompleteCallback {
+        OnNdefPushCompleteCallback, Wallet.Listener {
     public static final String BEAM_2_PAY_PREFERENCES = "Beam2PayPreferences";
+    // Balance in cents. Replaces the float balance of CURRENT_AMOUNT, which is only read once to
+    // migrate it.
+    public static final String CURRENT_AMOUNT_CENTS = "CurrentAmountCents";
     public static final String CURRENT_AMOUNT = "CurrentAmount";
-    public static final float DEFAULT_CURRENT_AMOUNT = 5000f;
+    // Number of journaled transfers included in CURRENT_AMOUNT_CENTS, see Balance.
+    public static final String CURRENT_JOURNAL_SIZE = "CurrentJournalSize";
+    public static final long DEFAULT_CURRENT_AMOUNT = 500000;
+
+    private static final Charset US_ASCII = Charset.forName("US-ASCII");
+    private static final byte[] MIME_TYPE = TransferPayload.MIME_TYPE.getBytes(US_ASCII);
+    private static final byte[] LEGACY_MIME_TYPE = TransferPayload.LEGACY_MIME_TYPE.getBytes(US_ASCII);
+
+    private static final int HISTORY_LENGTH = 20;
+    private static final String BATCH_FULL_MESSAGE =
+            "A beam holds at most " + TransferPayload.MAX_TRANSFERS + " transfers";
 
     private NfcAdapter mNfcAdapter;
 
@@ -55,20 +76,76 @@ public class Beam extends Activity implements CreateNdefMessageCallback,
     private EditText mAmounToSendText;
 
     private static final int MESSAGE_SENT = 1;
+    // Saved once the beam intent was processed, so the activity recreated with it, e.g. after a
+    // rotation, does not process it again.
+    private static final String STATE_INTENT_HANDLED = "IntentHandled";
+    // Transfer id of the first legacy record of a beam intent, added to the intent the first time
+    // it is processed.
+    private static final String EXTRA_LEGACY_TRANSFER_ID = "com.beam2pay.LEGACY_TRANSFER_ID";
+
+    // The journal and the balance, recorded to on the wallet's worker thread.
+    private Wallet mWallet;
+    // Message for the amount in the field, rebuilt on the UI thread whenever it changes, null
+    // while the field holds no amount. Read by createNdefMessage on a binder thread.
+    private volatile OutgoingTransfer mOutgoingTransfer;
+    // The transfer createNdefMessage last handed out, reported by onNdefPushComplete.
+    private volatile OutgoingTransfer mPushedTransfer;
+    // The transfer last reported sent, UI thread only.
+    private OutgoingTransfer mSentTransfer;
+    // Amounts added with "Add line item", beamed together with the amount in the field.
+    private final long[] mLineItems = new long[TransferPayload.MAX_TRANSFERS - 1];
+    private int mLineItemCount;
+    // Whether the intent of the activity was processed, see STATE_INTENT_HANDLED.
+    private boolean mIntentHandled;
+    // Transfers of the beam being received, reused.
+    private long[] mIncomingIds = new long[TransferPayload.MAX_TRANSFERS];
+    private long[] mIncomingAmounts = new long[TransferPayload.MAX_TRANSFERS];
+
+    // Reused for every amount and message shown, UI thread only.
+    private final StringBuilder mAmountFormat = new StringBuilder();
+    private final MessageTemplate mSentMessage = new MessageTemplate("Sent €{}");
+    private final MessageTemplate mReceivedMessage = new MessageTemplate("Received €{}");
+    private final MessageTemplate mLineItemsMessage = new MessageTemplate("{} line items, €{}");
+    private final MessageTemplate mSentHistoryLine = new MessageTemplate("Sent €{}, {}\n");
+    private final MessageTemplate mReceivedHistoryLine = new MessageTemplate("Received €{}, {}\n");
 
     @Override
     public void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
         setContentView(R.layout.activity_beam);
+        if (savedInstanceState != null && savedInstanceState.getBoolean(STATE_INTENT_HANDLED)) {
+            setIntent(new Intent());
+            // Saved again on the next rotation, or a later instance would process it once more.
+            mIntentHandled = true;
+        }
 
         mBalanceText = (TextView) findViewById(R.id.textView);
         mAmounToSendText = (EditText) findViewById(R.id.editAmountText);
 
         mAmounToSendText.setFilters(new InputFilter[]{new DecimalDigitsInputFilter(7, 2)});
+        mAmounToSendText.addTextChangedListener(new TextWatcher() {
+            @Override
+            public void beforeTextChanged(CharSequence s, int start, int count, int after) {
+            }
+
+            @Override
+            public void onTextChanged(CharSequence s, int start, int before, int count) {
+            }
+
+            @Override
+            public void afterTextChanged(Editable s) {
+                prepareOutgoingTransfer();
+            }
+        });
+        prepareOutgoingTransfer();
 
-        float currentAmount = getCurrentAmount();
-        setCurrentAmount(currentAmount);
-        mBalanceText.setText(formatFloat(currentAmount));
+        mWallet = Wallet.get(this);
+        mWallet.setListener(this);
+        if (mWallet.getJournal() == null) {
+            Toast.makeText(this, "Transfer history unavailable, receiving is disabled",
+                    Toast.LENGTH_LONG).show();
+        }
+        mBalanceText.setText(formatCents(mWallet.getBalance()));
 
         // Check for available NFC Adapter
         mNfcAdapter = NfcAdapter.getDefaultAdapter(this);
@@ -85,17 +162,72 @@ public class Beam extends Activity implements CreateNdefMessageCallback,
 
 
     /**
-     * Implementation for the CreateNdefMessageCallback interface
+     * Implementation for the CreateNdefMessageCallback interface. Runs while the phones touch, so
+     * it only hands out the message prepared by {@link #prepareOutgoingTransfer()}; null, i.e.
+     * nothing to push, while the amount field is empty.
      */
     @Override
     public NdefMessage createNdefMessage(NfcEvent event) {
-        EditText amountText = (EditText) findViewById(R.id.editAmountText);
-        String amount = amountText.getText().toString();
-        byte[] bytes = toByteArray(Float.valueOf(amount));
+        OutgoingTransfer transfer = mOutgoingTransfer;
+        mPushedTransfer = transfer;
+        return transfer != null ? transfer.message : null;
+    }
+
+    /**
+     * Builds the message for the line items and the amount in the field, packed in one record,
+     * with a new transfer id each: the receiver credits each id only once. UI thread only.
+     */
+    private void prepareOutgoingTransfer() {
+        int count = mLineItemCount;
+        long[] amounts = Arrays.copyOf(mLineItems, count + 1);
+        try {
+            amounts[count] = Cents.parse(mAmounToSendText.getText());
+            count++;
+        } catch (NumberFormatException e) {
+            // Empty or half typed, e.g. ".": only the line items.
+        }
+        if (count == 0) {
+            mOutgoingTransfer = null;
+            return;
+        }
+        long[] transferIds = new long[count];
+        for (int i = 0; i < count; i++) {
+            transferIds[i] = TransferPayload.newTransferId();
+        }
+        byte[] bytes = TransferPayload.toByteArray(transferIds, amounts, count);
         NdefRecord[] ndefRecords = {
-                createMimeRecord("application/com.example.android.beam", bytes)
+                createMimeRecord(TransferPayload.MIME_TYPE, bytes)
         };
-        return  new NdefMessage(ndefRecords);
+        mOutgoingTransfer = new OutgoingTransfer(transferIds, amounts, count, mLineItemCount,
+                new NdefMessage(ndefRecords));
+    }
+
+    /**
+     * Moves the amount in the field to the line items of the next beam.
+     */
+    private void addLineItem() {
+        long amount;
+        try {
+            amount = Cents.parse(mAmounToSendText.getText());
+        } catch (NumberFormatException e) {
+            Toast.makeText(this, "Enter an amount first", Toast.LENGTH_SHORT).show();
+            return;
+        }
+        if (mLineItemCount == mLineItems.length) {
+            Toast.makeText(this, BATCH_FULL_MESSAGE, Toast.LENGTH_SHORT).show();
+            return;
+        }
+        mLineItems[mLineItemCount++] = amount;
+        // Prepares the message again through the TextWatcher.
+        mAmounToSendText.setText("");
+        long total = 0;
+        for (int i = 0; i < mLineItemCount; i++) {
+            total += mLineItems[i];
+        }
+        mAmountFormat.setLength(0);
+        mLineItemsMessage.appendTo(mAmountFormat).number(mLineItemCount)
+                .fixedPoint(total, Cents.FRACTION_DIGITS).done();
+        Toast.makeText(this, mAmountFormat.toString(), Toast.LENGTH_SHORT).show();
     }
 
     /**
@@ -105,7 +237,7 @@ public class Beam extends Activity implements CreateNdefMessageCallback,
     public void onNdefPushComplete(NfcEvent arg0) {
         // A handler is needed to send messages to the activity when this
         // callback occurs, because it happens from a binder thread
-        mHandler.obtainMessage(MESSAGE_SENT).sendToTarget();
+        mHandler.obtainMessage(MESSAGE_SENT, mPushedTransfer).sendToTarget();
     }
 
     /** This handler receives a message from onNdefPushComplete */
@@ -114,21 +246,38 @@ public class Beam extends Activity implements CreateNdefMessageCallback,
         public void handleMessage(Message msg) {
             switch (msg.what) {
                 case MESSAGE_SENT:
-                    String amountToSendText = mAmounToSendText.getText().toString();
-                    float amountToSend = Float.valueOf(amountToSendText);
-                    float currentAmount = getCurrentAmount();
-                    currentAmount  -= amountToSend;
-                    setCurrentAmount(currentAmount);
-                    mBalanceText.setText(formatFloat(currentAmount));
-                    Toast.makeText(Beam.this, "Sent €" + formatFloat(amountToSend), Toast.LENGTH_SHORT).show();
+                    OutgoingTransfer transfer = (OutgoingTransfer) msg.obj;
+                    if (transfer == null || transfer == mSentTransfer) {
+                        // Already debited when the push completed before.
+                        break;
+                    }
+                    mSentTransfer = transfer;
+                    // The line items are paid; items added since stay for the next beam.
+                    mLineItemCount -= transfer.lineItemCount;
+                    System.arraycopy(mLineItems, transfer.lineItemCount, mLineItems, 0, mLineItemCount);
+                    // The next beam must not reuse the ids.
+                    prepareOutgoingTransfer();
+                    // Copies: the journal compacts the arrays it is given. Debited, and shown, in
+                    // onTransfersRecorded.
+                    mWallet.record(transfer.transferIds.clone(), transfer.amounts.clone(),
+                            transfer.count, TransferJournal.OUTGOING);
                     break;
             }
         }
     };
 
-    private String formatFloat(float amount) {
-        DecimalFormat formatter = new DecimalFormat("#0.00");
-        return  formatter.format(amount);
+    private String formatCents(long amount) {
+        mAmountFormat.setLength(0);
+        return Cents.append(mAmountFormat, amount).toString();
+    }
+
+    /**
+     * @return {@code message} with its one placeholder filled in with {@code amount}
+     */
+    private String formatMessage(MessageTemplate message, long amount) {
+        mAmountFormat.setLength(0);
+        return message.appendTo(mAmountFormat).fixedPoint(amount, Cents.FRACTION_DIGITS).done()
+                .toString();
     }
 
     @Override
@@ -137,61 +286,168 @@ public class Beam extends Activity implements CreateNdefMessageCallback,
         // Check to see that the Activity started due to an Android Beam
         if (NfcAdapter.ACTION_NDEF_DISCOVERED.equals(getIntent().getAction())) {
             processIntent(getIntent());
+            // Only once: onResume runs again on every return to the activity.
+            setIntent(new Intent());
+            mIntentHandled = true;
         }
     }
 
+    @Override
+    protected void onSaveInstanceState(Bundle outState) {
+        super.onSaveInstanceState(outState);
+        outState.putBoolean(STATE_INTENT_HANDLED, mIntentHandled);
+    }
+
+    @Override
+    public void onPause() {
+        super.onPause();
+        // The process may be killed at any time once paused.
+        mWallet.flush();
+    }
+
+    @Override
+    public void onDestroy() {
+        super.onDestroy();
+        // The wallet stays open for the next instance; transfers still being recorded are shown
+        // by it, or not at all.
+        mWallet.setListener(null);
+    }
+
     @Override
     public void onNewIntent(Intent intent) {
         // onResume gets called after this to handle the intent
         setIntent(intent);
+        mIntentHandled = false;
     }
 
     /**
      * Parses the NDEF Message from the intent and prints to the TextView
+     *
+     * <p>All transfers of the beam, in any number of records, are credited in one balance update,
+     * or none of them if one is invalid.
      */
     void processIntent(Intent intent) {
         Parcelable[] rawMsgs = intent.getParcelableArrayExtra(
                 NfcAdapter.EXTRA_NDEF_MESSAGES);
-        // only one message sent during the beam
-        NdefMessage msg = (NdefMessage) rawMsgs[0];
-        // record 0 contains the MIME type, record 1 is the AAR, if present
-        NdefRecord[] records = msg.getRecords();
-        byte[] payload = records[0].getPayload();
-        float incomingAmount = toFloat(payload);
-        float currentAmount = getCurrentAmount();
-        currentAmount += incomingAmount;
-        setCurrentAmount(currentAmount);
-        mBalanceText.setText(formatFloat(currentAmount));
-        Toast.makeText(this,"Received €"+formatFloat(incomingAmount), Toast.LENGTH_SHORT).show();
-    }
-
-    public static byte[] toByteArray(float value) {
-        byte[] bytes = new byte[8];
-        ByteBuffer.wrap(bytes).putFloat(value);
-        return bytes;
+        int count = 0;
+        long incomingAmount = 0;
+        boolean valid = true;
+        int legacyCount = 0;
+        for (Parcelable rawMsg : rawMsgs) {
+            for (NdefRecord record : ((NdefMessage) rawMsg).getRecords()) {
+                byte[] type = record.getType();
+                byte[] payload = record.getPayload();
+                boolean legacy = Arrays.equals(LEGACY_MIME_TYPE, type) && payload.length >= 4;
+                int transfers;
+                if (legacy) {
+                    transfers = 1;
+                } else if (Arrays.equals(MIME_TYPE, type)) {
+                    transfers = TransferPayload.count(payload.length);
+                    valid &= transfers > 0;
+                } else {
+                    // Not a transfer, e.g. the Android Application Record.
+                    continue;
+                }
+                for (int i = 0; i < transfers; i++) {
+                    if (count == mIncomingIds.length) {
+                        mIncomingIds = Arrays.copyOf(mIncomingIds, count * 2);
+                        mIncomingAmounts = Arrays.copyOf(mIncomingAmounts, count * 2);
+                    }
+                    long amount;
+                    if (legacy) {
+                        mIncomingIds[count] = legacyTransferId(intent, legacyCount++);
+                        amount = TransferPayload.decodeLegacy(payload);
+                    } else {
+                        int offset = i * TransferPayload.LENGTH;
+                        mIncomingIds[count] = TransferPayload.decodeTransferId(payload, offset);
+                        amount = TransferPayload.decodeCents(payload, offset);
+                    }
+                    mIncomingAmounts[count++] = amount;
+                    // Negative or adding up past a long.
+                    valid &= amount >= 0 && incomingAmount + amount >= 0;
+                    incomingAmount += amount;
+                }
+            }
+        }
+        if (!valid || count == 0 || count > TransferJournal.MAX_BATCH) {
+            Toast.makeText(this, "Received an invalid amount", Toast.LENGTH_SHORT).show();
+            return;
+        }
+        // Copies: the arrays are reused for the next beam. Credited, and shown, in
+        // onTransfersRecorded.
+        mWallet.record(Arrays.copyOf(mIncomingIds, count), Arrays.copyOf(mIncomingAmounts, count),
+                count, TransferJournal.INCOMING);
     }
 
-    private float getCurrentAmount() {
-        SharedPreferences sharedPreferences = getSharedPreferences(BEAM_2_PAY_PREFERENCES, MODE_PRIVATE);
-        return sharedPreferences.getFloat(CURRENT_AMOUNT, DEFAULT_CURRENT_AMOUNT);
+    /**
+     * Legacy beams carry no transfer id. They get ids kept in the intent instead, so the same
+     * intent processed again is recognized by the journal; a legacy beam sent again is a new
+     * intent and credited again.
+     *
+     * @return the id of the {@code index}th legacy record of the beam in {@code intent}
+     */
+    private static long legacyTransferId(Intent intent, int index) {
+        if (!intent.hasExtra(EXTRA_LEGACY_TRANSFER_ID)) {
+            intent.putExtra(EXTRA_LEGACY_TRANSFER_ID, TransferPayload.newTransferId());
+        }
+        return intent.getLongExtra(EXTRA_LEGACY_TRANSFER_ID, 0) + index;
     }
 
-    private void setCurrentAmount(float currentAmount) {
-        SharedPreferences sharedPreferences = getSharedPreferences(BEAM_2_PAY_PREFERENCES, MODE_PRIVATE);
-        SharedPreferences.Editor editor = sharedPreferences.edit();
-        editor.putFloat(CURRENT_AMOUNT,currentAmount);
-        editor.apply();
+    /**
+     * Implementation for the Wallet.Listener interface, on the UI thread once transfers of this or
+     * an earlier instance were recorded.
+     */
+    @Override
+    public void onTransfersRecorded(int direction, int result, long amount, long balance) {
+        mBalanceText.setText(formatCents(balance));
+        boolean incoming = direction == TransferJournal.INCOMING;
+        switch (result) {
+            case Wallet.RECORDED:
+                Toast.makeText(this, formatMessage(incoming ? mReceivedMessage : mSentMessage,
+                        amount), Toast.LENGTH_SHORT).show();
+                break;
+            case Wallet.DUPLICATE:
+                if (incoming) {
+                    Toast.makeText(this, "Transfer already received", Toast.LENGTH_SHORT).show();
+                }
+                break;
+            case Wallet.FAILED:
+                Toast.makeText(this, "Could not record the transfer", Toast.LENGTH_SHORT).show();
+                break;
+            case Wallet.UNAVAILABLE:
+                Toast.makeText(this, incoming ? "Transfer history unavailable, nothing received"
+                        : formatMessage(mSentMessage, amount), Toast.LENGTH_SHORT).show();
+                break;
+        }
     }
 
-    public static float toFloat(byte[] bytes) {
-        return ByteBuffer.wrap(bytes).getFloat();
+    /**
+     * Shows the last {@link #HISTORY_LENGTH} transfers, newest first.
+     */
+    private void showHistory() {
+        StringBuilder history = new StringBuilder();
+        TransferJournal journal = mWallet.getJournal();
+        if (journal != null) {
+            DateFormat dateFormat = DateFormat.getDateTimeInstance(DateFormat.SHORT, DateFormat.SHORT);
+            int size = journal.size();
+            for (int i = size - 1; i >= 0 && i >= size - HISTORY_LENGTH; i--) {
+                MessageTemplate line = journal.isIncoming(i) ? mReceivedHistoryLine : mSentHistoryLine;
+                line.appendTo(history).fixedPoint(journal.getCents(i), Cents.FRACTION_DIGITS)
+                        .text(dateFormat.format(new Date(journal.getTimeMillis(i)))).done();
+            }
+        }
+        new AlertDialog.Builder(this)
+                .setTitle(R.string.history)
+                .setMessage(history.length() > 0 ? history : "No transfers yet")
+                .setPositiveButton(android.R.string.ok, null)
+                .show();
     }
 
     /**
      * Creates a custom MIME type encapsulated in an NDEF record
      */
     public NdefRecord createMimeRecord(String mimeType, byte[] payload) {
-        byte[] mimeBytes = mimeType.getBytes(Charset.forName("US-ASCII"));
+        byte[] mimeBytes = mimeType.getBytes(US_ASCII);
         return new NdefRecord(NdefRecord.TNF_MIME_MEDIA, mimeBytes, new byte[0], payload);
     }
 
@@ -213,9 +469,36 @@ public class Beam extends Activity implements CreateNdefMessageCallback,
                 Intent intent = new Intent(Settings.ACTION_NFCSHARING_SETTINGS);
                 startActivity(intent);
                 return true;
+            case R.id.menu_history:
+                showHistory();
+                return true;
+            case R.id.menu_add_item:
+                addLineItem();
+                return true;
             default:
                 return super.onOptionsItemSelected(item);
         }
     }
 
+    /**
+     * A prepared outgoing beam and the transfers it carries: the first {@code lineItemCount} are
+     * the line items, followed by the amount in the field if there was one.
+     */
+    private static final class OutgoingTransfer {
+        final long[] transferIds;
+        final long[] amounts;
+        final int count;
+        final int lineItemCount;
+        final NdefMessage message;
+
+        OutgoingTransfer(long[] transferIds, long[] amounts, int count, int lineItemCount,
+                         NdefMessage message) {
+            this.transferIds = transferIds;
+            this.amounts = amounts;
+            this.count = count;
+            this.lineItemCount = lineItemCount;
+            this.message = message;
+        }
+    }
+
 }
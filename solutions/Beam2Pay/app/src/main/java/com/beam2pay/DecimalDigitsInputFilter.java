@@ -4,22 +4,21 @@ package com.beam2pay;
 import android.text.InputFilter;
 import android.text.Spanned;
 
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import com.beam2pay.core.DecimalDigitsValidator;
 
 public class DecimalDigitsInputFilter implements InputFilter {
 
-    Pattern mPattern;
+    DecimalDigitsValidator mValidator;
 
     public DecimalDigitsInputFilter(int digitsBeforeZero,int digitsAfterZero) {
-        mPattern=Pattern.compile("[0-9]{0," + (digitsBeforeZero-1) + "}+((\\.[0-9]{0," + (digitsAfterZero-1) + "})?)||(\\.)?");
+        mValidator=new DecimalDigitsValidator(digitsBeforeZero, digitsAfterZero);
     }
 
     @Override
     public CharSequence filter(CharSequence source, int start, int end, Spanned dest, int dstart, int dend) {
 
-        Matcher matcher=mPattern.matcher(dest);
-        if(!matcher.matches())
+        // The text after the edit, not dest, which is the text before it.
+        if(!mValidator.acceptsEdit(source, start, end, dest, dstart, dend))
             return "";
         return null;
     }
@@ -0,0 +1,228 @@
+package com.beam2pay;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+
+import com.beam2pay.core.Balance;
+import com.beam2pay.core.TransferJournal;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * The transfer journal and the balance, shared by every instance of the activity for the life of
+ * the process, and the worker thread that records transfers in them.
+ *
+ * <p>Appending to the journal forces it to storage, so transfers are recorded on the worker thread
+ * and the outcome is posted back to the main thread. The wallet is created on first use and never
+ * closed: an activity recreated, e.g. on rotation, keeps appending to the same journal instead of
+ * opening the file a second time while the worker may still be writing to it.
+ */
+final class Wallet {
+
+    /** The transfers were journaled and the balance changed. */
+    static final int RECORDED = 0;
+    /** All transfers were in the journal already; the balance is unchanged. */
+    static final int DUPLICATE = 1;
+    /** The journal could not be written; only sent transfers changed the balance. */
+    static final int FAILED = 2;
+    /** There is no journal; only sent transfers changed the balance. */
+    static final int UNAVAILABLE = 3;
+
+    /**
+     * Receives the outcome of {@link #record(long[], long[], int, int)} on the main thread.
+     */
+    interface Listener {
+        /**
+         * @param direction {@link TransferJournal#INCOMING} or {@link TransferJournal#OUTGOING}
+         * @param result    {@link #RECORDED}, {@link #DUPLICATE}, {@link #FAILED} or
+         *                  {@link #UNAVAILABLE}
+         * @param amount    the amount the balance changed by, positive for both directions
+         * @param balance   the balance after the change
+         */
+        void onTransfersRecorded(int direction, int result, long amount, long balance);
+    }
+
+    static final String TRANSFER_JOURNAL = "transfers.journal";
+    // Transfers within this time of the first one not written are written as one balance update.
+    private static final long BALANCE_WRITE_DELAY_MILLIS = 2000;
+
+    private static Wallet sInstance;
+
+    // Null if it could not be opened.
+    private final TransferJournal mJournal;
+    private final Balance mBalance;
+    private final Handler mWorker;
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+    // Main thread only.
+    private Listener mListener;
+
+    private Wallet(Context context) {
+        final SharedPreferences preferences =
+                context.getSharedPreferences(Beam.BEAM_2_PAY_PREFERENCES, Context.MODE_PRIVATE);
+        TransferJournal journal = null;
+        try {
+            journal = TransferJournal.open(new File(context.getFilesDir(), TRANSFER_JOURNAL));
+        } catch (IOException e) {
+            // Receiving is disabled, see getJournal().
+        }
+        mJournal = journal;
+        mBalance = new Balance(new Balance.Store() {
+            @Override
+            public long load() {
+                return getCurrentAmount(preferences);
+            }
+
+            @Override
+            public int loadJournalSize() {
+                return preferences.getInt(Beam.CURRENT_JOURNAL_SIZE, -1);
+            }
+
+            @Override
+            public void store(long cents, int journalSize) throws IOException {
+                setCurrentAmount(preferences, cents, journalSize);
+            }
+        }, BALANCE_WRITE_DELAY_MILLIS);
+        if (mJournal != null) {
+            mBalance.replay(mJournal);
+        }
+        mBalance.start();
+        HandlerThread worker = new HandlerThread("TransferRecorder");
+        worker.start();
+        mWorker = new Handler(worker.getLooper());
+    }
+
+    /**
+     * Opens the journal and loads the balance the first time it is called, on the calling
+     * thread; after that it only returns the wallet.
+     */
+    static synchronized Wallet get(Context context) {
+        if (sInstance == null) {
+            sInstance = new Wallet(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    /**
+     * @return the journal, to read the history from, or null if it could not be opened
+     */
+    TransferJournal getJournal() {
+        return mJournal;
+    }
+
+    /**
+     * @return the balance in cents, from memory
+     */
+    long getBalance() {
+        return mBalance.get();
+    }
+
+    /**
+     * Sets the listener for the outcome of transfers, null for none; outcomes arriving while
+     * there is none are dropped. Main thread only.
+     */
+    void setListener(Listener listener) {
+        mListener = listener;
+    }
+
+    /**
+     * Has the balance written now, see {@link Balance#flush()}.
+     */
+    void flush() {
+        mBalance.flush();
+    }
+
+    /**
+     * Journals the transfers and changes the balance by their amounts, on the worker thread,
+     * then reports to the listener. Received transfers are credited only if they were journaled
+     * and not received before; sent transfers are debited unless they were journaled before.
+     *
+     * @param transferIds  handed over to the worker, which compacts them
+     * @param amountsCents handed over like {@code transferIds}
+     * @param direction    {@link TransferJournal#INCOMING} or {@link TransferJournal#OUTGOING}
+     */
+    void record(final long[] transferIds, final long[] amountsCents, final int count,
+                final int direction) {
+        mWorker.post(new Runnable() {
+            @Override
+            public void run() {
+                recordTransfers(transferIds, amountsCents, count, direction);
+            }
+        });
+    }
+
+    /**
+     * Worker thread only.
+     */
+    private void recordTransfers(long[] transferIds, long[] amountsCents, int count,
+                                 final int direction) {
+        long amount = 0;
+        for (int i = 0; i < count; i++) {
+            amount += amountsCents[i];
+        }
+        int result;
+        if (mJournal == null) {
+            result = UNAVAILABLE;
+        } else {
+            try {
+                int appended = mJournal.append(transferIds, amountsCents, count,
+                        System.currentTimeMillis(), direction);
+                result = appended > 0 ? RECORDED : DUPLICATE;
+                amount = 0;
+                for (int i = 0; i < appended; i++) {
+                    amount += amountsCents[i];
+                }
+            } catch (IOException e) {
+                result = FAILED;
+            }
+        }
+        boolean incoming = direction == TransferJournal.INCOMING;
+        if (result == DUPLICATE || (incoming && result != RECORDED)) {
+            amount = 0;
+        }
+        // After the append: the journal size stored with the balance includes the transfers.
+        int journalSize = result == RECORDED ? mJournal.size() : mBalance.getJournalSize();
+        final long balance = amount == 0 ? mBalance.get()
+                : mBalance.add(incoming ? amount : -amount, journalSize);
+        final int finalResult = result;
+        final long finalAmount = amount;
+        mMainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (mListener != null) {
+                    mListener.onTransfersRecorded(direction, finalResult, finalAmount, balance);
+                }
+            }
+        });
+    }
+
+    /**
+     * Reads the stored balance. Only used to load {@link #mBalance}.
+     */
+    private static long getCurrentAmount(SharedPreferences sharedPreferences) {
+        if (!sharedPreferences.contains(Beam.CURRENT_AMOUNT_CENTS)
+                && sharedPreferences.contains(Beam.CURRENT_AMOUNT)) {
+            // Balance stored by a version that kept it as a float.
+            return Math.round((double) sharedPreferences.getFloat(Beam.CURRENT_AMOUNT, 0f) * 100);
+        }
+        return sharedPreferences.getLong(Beam.CURRENT_AMOUNT_CENTS, Beam.DEFAULT_CURRENT_AMOUNT);
+    }
+
+    /**
+     * Stores the balance durably, with the journal size it includes in the same commit. Runs on
+     * the writer thread of {@link #mBalance}.
+     */
+    private static void setCurrentAmount(SharedPreferences sharedPreferences, long currentAmount,
+                                         int journalSize) throws IOException {
+        SharedPreferences.Editor editor = sharedPreferences.edit();
+        editor.putLong(Beam.CURRENT_AMOUNT_CENTS, currentAmount);
+        editor.putInt(Beam.CURRENT_JOURNAL_SIZE, journalSize);
+        editor.remove(Beam.CURRENT_AMOUNT);
+        if (!editor.commit()) {
+            throw new IOException("Could not store the balance");
+        }
+    }
+}
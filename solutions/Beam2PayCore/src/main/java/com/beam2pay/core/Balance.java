@@ -0,0 +1,225 @@
+package com.beam2pay.core;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The balance in {@link Cents}, held in memory with write-behind persistence.
+ *
+ * <p>The balance is loaded from the {@link Store} once, when the holder is created; after that
+ * {@link #get()} and {@link #add(long, int)} only touch memory and can be called on the UI
+ * thread. A writer thread stores the balance at most the write delay after the first change not
+ * written yet, so a series of updates costs one write. {@link #flush()} writes right away, e.g.
+ * when the activity pauses, and {@link #close()} writes a pending balance before stopping the
+ * writer.
+ *
+ * <p>A change not written yet is lost if the process dies. Transfers are journaled before they
+ * change the balance, so the balance is stored with the size of the {@link TransferJournal} it
+ * includes, and {@link #replay(TransferJournal)} applies the transfers journaled after that on
+ * load.
+ */
+public final class Balance implements Closeable {
+
+    /**
+     * Where the balance is persisted. Both methods may block on storage.
+     */
+    public interface Store {
+        /**
+         * @return the stored balance in cents, or the initial balance if none was stored yet
+         */
+        long load();
+
+        /**
+         * @return the journal size stored with the balance, or -1 if none was stored yet
+         */
+        int loadJournalSize();
+
+        /**
+         * Stores the balance and the journal size it includes durably, both or neither; called on
+         * the writer thread.
+         */
+        void store(long cents, int journalSize) throws IOException;
+    }
+
+    private final Store store;
+    private final long delayNanos;
+    private final Thread thread;
+
+    // Guarded by this.
+    private long cents;
+    private int journalSize;
+    private boolean dirty;
+    private boolean flushRequested;
+    // When the balance last changed while it was clean, i.e. the oldest change not written.
+    private long changedAt;
+    private boolean closed;
+    private long writeCount;
+    // Only touched by the writer thread.
+    private long writingCents;
+    private int writingJournalSize;
+
+    /**
+     * Loads the balance from {@code store}.
+     *
+     * @param delayMillis Longest time a change waits to be written
+     */
+    public Balance(Store store, long delayMillis) {
+        this.store = store;
+        this.delayNanos = TimeUnit.MILLISECONDS.toNanos(delayMillis);
+        this.cents = store.load();
+        this.journalSize = store.loadJournalSize();
+        this.thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                runWriter();
+            }
+        }, "BalanceWriter");
+    }
+
+    /**
+     * Applies the transfers journaled after the stored balance, e.g. credited just before the
+     * process died. Called once, before {@link #start()}.
+     */
+    public synchronized void replay(TransferJournal journal) {
+        int size = journal.size();
+        if (journalSize < 0 || journalSize > size) {
+            // Stored before there was a journal, or with one that was lost since: the balance is
+            // all there is.
+            journalSize = size;
+            return;
+        }
+        for (int i = journalSize; i < size; i++) {
+            add(journal.isIncoming(i) ? journal.getCents(i) : -journal.getCents(i), i + 1);
+        }
+    }
+
+    public void start() {
+        thread.start();
+    }
+
+    /**
+     * @return the balance in cents
+     */
+    public synchronized long get() {
+        return cents;
+    }
+
+    /**
+     * Adds {@code amount}, negative for a debit, and schedules a write.
+     *
+     * @param journalSize Size of the journal once the transfers of {@code amount} are appended;
+     *                    the size stored so far if they could not be journaled
+     * @return the new balance in cents
+     */
+    public synchronized long add(long amount, int journalSize) {
+        cents += amount;
+        this.journalSize = journalSize;
+        if (!dirty) {
+            dirty = true;
+            changedAt = System.nanoTime();
+        }
+        notifyAll();
+        return cents;
+    }
+
+    /**
+     * @return the size of the journal included in the balance, -1 if not known
+     */
+    public synchronized int getJournalSize() {
+        return journalSize;
+    }
+
+    /**
+     * Has the writer store a changed balance now instead of after the write delay. Does not
+     * wait for the write.
+     */
+    public synchronized void flush() {
+        if (dirty) {
+            flushRequested = true;
+            notifyAll();
+        }
+    }
+
+    /**
+     * @return the number of times the balance was written
+     */
+    public synchronized long getWriteCount() {
+        return writeCount;
+    }
+
+    /**
+     * Writes a changed balance and stops the writer thread. Waits for the write, so not for the
+     * UI thread.
+     */
+    @Override
+    public void close() throws IOException {
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            notifyAll();
+        }
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while closing", e);
+        }
+    }
+
+    private void runWriter() {
+        try {
+            while (awaitWrite()) {
+                try {
+                    store.store(writingCents, writingJournalSize);
+                    synchronized (this) {
+                        writeCount++;
+                    }
+                } catch (IOException e) {
+                    synchronized (this) {
+                        if (closed) {
+                            // Do not hold up close() retrying.
+                            return;
+                        }
+                        if (!dirty) {
+                            // Try again after the write delay.
+                            dirty = true;
+                            changedAt = System.nanoTime();
+                        }
+                    }
+                }
+            }
+        } catch (InterruptedException e) {
+            // Stop without writing.
+        }
+    }
+
+    /**
+     * Waits until the first change not written is as old as the write delay, a flush is requested
+     * or the holder is closed, and takes the balance to write into {@link #writingCents} and
+     * {@link #writingJournalSize}.
+     *
+     * @return false once closed with nothing left to write
+     */
+    private synchronized boolean awaitWrite() throws InterruptedException {
+        while (true) {
+            if (dirty) {
+                long remaining = changedAt + delayNanos - System.nanoTime();
+                if (closed || flushRequested || remaining <= 0) {
+                    dirty = false;
+                    flushRequested = false;
+                    writingCents = cents;
+                    writingJournalSize = journalSize;
+                    return true;
+                }
+                TimeUnit.NANOSECONDS.timedWait(this, remaining);
+            } else if (closed) {
+                return false;
+            } else {
+                wait();
+            }
+        }
+    }
+}
@@ -0,0 +1,92 @@
+package com.beam2pay.core;
+
+import com.nfcworkshop.format.Formats;
+
+/**
+ * Money as a {@code long} count of euro cents.
+ *
+ * <p>Amounts are kept, added and beamed as exact cents, so no rounding error builds up over
+ * many transfers. Parsing and formatting work digit by digit, without floating point, regular
+ * expressions or intermediate objects.
+ */
+public final class Cents {
+
+    public static final int FRACTION_DIGITS = 2;
+    private static final int CENTS_PER_UNIT = 100;
+    // Largest whole amount that still fits in a long with any two decimals.
+    private static final long MAX_UNITS = (Long.MAX_VALUE - 99) / CENTS_PER_UNIT;
+
+    private Cents() {
+    }
+
+    /**
+     * Convenience for {@code parse(s, 0, s.length())}.
+     */
+    public static long parse(CharSequence s) throws NumberFormatException {
+        return parse(s, 0, s.length());
+    }
+
+    /**
+     * Parses a non-negative amount such as "12", "12.", "12.5", "12.50" or ".5".
+     *
+     * @return the amount in cents
+     * @throws NumberFormatException if {@code s[start, end)} holds no digits, anything but
+     * digits and one decimal point, more than two decimals or more than fits in a long
+     */
+    public static long parse(CharSequence s, int start, int end) throws NumberFormatException {
+        long units = 0;
+        int digits = 0;
+        int i = start;
+        for (; i < end; i++) {
+            int digit = s.charAt(i) - '0';
+            if (digit < 0 || digit > 9) {
+                break;
+            }
+            if (units > (MAX_UNITS - digit) / 10) {
+                throw new NumberFormatException("Amount too large: " + s.subSequence(start, end));
+            }
+            units = units * 10 + digit;
+            digits++;
+        }
+        long fraction = 0;
+        if (i < end && s.charAt(i) == '.') {
+            int fractionDigits = 0;
+            for (i++; i < end; i++, fractionDigits++) {
+                int digit = s.charAt(i) - '0';
+                if (digit < 0 || digit > 9 || fractionDigits == FRACTION_DIGITS) {
+                    throw invalid(s, start, end);
+                }
+                fraction = fraction * 10 + digit;
+                digits++;
+            }
+            for (; fractionDigits < FRACTION_DIGITS; fractionDigits++) {
+                fraction *= 10;
+            }
+        }
+        if (i < end || digits == 0) {
+            throw invalid(s, start, end);
+        }
+        return units * CENTS_PER_UNIT + fraction;
+    }
+
+    /**
+     * Appends the amount with two decimals and at least one digit before the decimal point, like
+     * DecimalFormat("#0.00"): "0.05", "12.50", "-3.00".
+     *
+     * @return {@code dst}
+     */
+    public static StringBuilder append(StringBuilder dst, long cents) {
+        return Formats.appendFixedPoint(dst, cents, FRACTION_DIGITS);
+    }
+
+    /**
+     * Allocating convenience for {@link #append(StringBuilder, long)}.
+     */
+    public static String toString(long cents) {
+        return append(new StringBuilder(24), cents).toString();
+    }
+
+    private static NumberFormatException invalid(CharSequence s, int start, int end) {
+        return new NumberFormatException("Invalid amount: \"" + s.subSequence(start, end) + "\"");
+    }
+}
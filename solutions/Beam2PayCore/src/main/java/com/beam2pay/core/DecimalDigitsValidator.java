@@ -0,0 +1,70 @@
+package com.beam2pay.core;
+
+/**
+ * Accepts amounts with a limited number of digits before and after the decimal point, see
+ * com.beam2pay.DecimalDigitsInputFilter: "", "12", "12.", ".5" and "12.50", but neither "1.2.3"
+ * nor a sign.
+ *
+ * <p>A hand-written DFA: the state is the number of digits before the decimal point, or, after
+ * it, {@code digitsBeforeZero + 1} plus the number of digits after it. Every state accepts, so
+ * a text is valid unless a character has no transition. One pass, no allocation.
+ */
+public final class DecimalDigitsValidator {
+
+    private static final int REJECT = -1;
+
+    private final int mDigitsBeforeZero;
+    private final int mDigitsAfterZero;
+
+    /**
+     * @param digitsBeforeZero Maximum number of digits before the decimal point
+     * @param digitsAfterZero Maximum number of digits after the decimal point
+     */
+    public DecimalDigitsValidator(int digitsBeforeZero, int digitsAfterZero) {
+        mDigitsBeforeZero = digitsBeforeZero;
+        mDigitsAfterZero = digitsAfterZero;
+    }
+
+    /**
+     * @return true if {@code text} is a valid amount, or the beginning of one
+     */
+    public boolean matches(CharSequence text) {
+        return run(0, text, 0, text.length()) != REJECT;
+    }
+
+    /**
+     * Checks the text an edit would result in, without building it: {@code dest} with
+     * {@code dest[dstart, dend)} replaced by {@code source[start, end)}, as passed to
+     * InputFilter.filter.
+     *
+     * @return true if the resulting text is a valid amount, or the beginning of one
+     */
+    public boolean acceptsEdit(CharSequence source, int start, int end, CharSequence dest,
+                               int dstart, int dend) {
+        int state = run(0, dest, 0, dstart);
+        state = run(state, source, start, end);
+        return run(state, dest, dend, dest.length()) != REJECT;
+    }
+
+    private int run(int state, CharSequence text, int start, int end) {
+        for (int i = start; i < end && state != REJECT; i++) {
+            state = next(state, text.charAt(i));
+        }
+        return state;
+    }
+
+    private int next(int state, char c) {
+        int fractionState = mDigitsBeforeZero + 1;
+        if (c >= '0' && c <= '9') {
+            if (state < mDigitsBeforeZero
+                    || (state >= fractionState && state - fractionState < mDigitsAfterZero)) {
+                return state + 1;
+            }
+            return REJECT;
+        }
+        if (c == '.' && state < fractionState) {
+            return fractionState;
+        }
+        return REJECT;
+    }
+}
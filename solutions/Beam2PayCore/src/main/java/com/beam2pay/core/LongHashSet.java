@@ -0,0 +1,84 @@
+package com.beam2pay.core;
+
+/**
+ * Open-addressing set of {@code long}s without boxing: a lookup probes a few slots of one
+ * array, however many values the set holds.
+ *
+ * <p>Not thread-safe.
+ */
+final class LongHashSet {
+
+    // 0 marks a free slot, so 0 itself is tracked separately.
+    private long[] table = new long[64];
+    private boolean containsZero;
+    private int size;
+
+    boolean contains(long value) {
+        if (value == 0) {
+            return containsZero;
+        }
+        int mask = table.length - 1;
+        for (int i = index(value, mask); ; i = (i + 1) & mask) {
+            long slot = table[i];
+            if (slot == value) {
+                return true;
+            }
+            if (slot == 0) {
+                return false;
+            }
+        }
+    }
+
+    /**
+     * @return false if the set already held {@code value}
+     */
+    boolean add(long value) {
+        if (value == 0) {
+            if (containsZero) {
+                return false;
+            }
+            containsZero = true;
+            size++;
+            return true;
+        }
+        int mask = table.length - 1;
+        int i = index(value, mask);
+        for (; table[i] != 0; i = (i + 1) & mask) {
+            if (table[i] == value) {
+                return false;
+            }
+        }
+        table[i] = value;
+        size++;
+        // Keep the load factor at or below one half.
+        if (2 * size > table.length) {
+            rehash(table.length * 2);
+        }
+        return true;
+    }
+
+    int size() {
+        return size;
+    }
+
+    private void rehash(int capacity) {
+        long[] old = table;
+        table = new long[capacity];
+        int mask = capacity - 1;
+        for (long value : old) {
+            if (value != 0) {
+                int i = index(value, mask);
+                while (table[i] != 0) {
+                    i = (i + 1) & mask;
+                }
+                table[i] = value;
+            }
+        }
+    }
+
+    private static int index(long value, int mask) {
+        // Transfer ids are random, but mix anyway in case a caller uses sequential ones.
+        long h = value * 0x9E3779B97F4A7C15L;
+        return (int) (h >>> 32) & mask;
+    }
+}
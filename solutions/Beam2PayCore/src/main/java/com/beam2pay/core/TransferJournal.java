@@ -0,0 +1,345 @@
+package com.beam2pay.core;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only journal of the transfers sent and received, which makes receiving idempotent.
+ *
+ * <p>Every transfer carries a unique id (see {@link TransferPayload}). A received transfer is
+ * appended, and forced to storage, before its amount is credited; a beam that is delivered
+ * again, e.g. because the activity is recreated with the same intent, is found in the journal
+ * and rejected. The ids are also kept in a {@link LongHashSet}, so the check does not depend on
+ * the length of the history.
+ *
+ * <p>The journal doubles as the transfer history: {@link #size()} entries, oldest first, read
+ * with {@link #getTransferId(int)}, {@link #getCents(int)}, {@link #getTimeMillis(int)} and
+ * {@link #isIncoming(int)} straight from memory.
+ *
+ * <p>File layout: an 8 byte header (magic and version) followed by one record per append, of
+ * [CRC32 (4) | count (4) | count entries], each entry [transfer id (8) | cents (8) |
+ * time millis (8) | direction (4)]; the CRC covers the count and the entries. On open the journal
+ * is read up to the first short or corrupt record, i.e. one torn by a crash, and truncated there,
+ * so a batch is either kept or dropped as a whole. All methods are synchronized.
+ */
+public final class TransferJournal implements Closeable {
+
+    public static final int INCOMING = 1;
+    public static final int OUTGOING = 2;
+    // Most transfers appended at once, so replay can tell a corrupt count from a large batch.
+    public static final int MAX_BATCH = 1024;
+
+    private static final int MAGIC = 0x4232504A; // "B2PJ"
+    // Version 1 had a CRC per transfer, which could not keep a torn batch out.
+    private static final int VERSION = 2;
+    private static final int HEADER_SIZE = 8;
+    private static final int RECORD_HEADER_SIZE = 8;
+    private static final int ENTRY_SIZE = 28;
+
+    private final File file;
+    private final RandomAccessFile randomAccessFile;
+    private final FileChannel channel;
+    // Reused for every append of a single transfer.
+    private final ByteBuffer record = ByteBuffer.allocate(recordSize(1));
+    private final CRC32 crc = new CRC32();
+
+    private final LongHashSet transferIds = new LongHashSet();
+    private long[] ids = new long[16];
+    private long[] cents = new long[16];
+    private long[] times = new long[16];
+    private byte[] directions = new byte[16];
+    private int size;
+    // File offset of the next record.
+    private long end;
+
+    private TransferJournal(File file) throws IOException {
+        this.file = file;
+        this.randomAccessFile = new RandomAccessFile(file, "rw");
+        this.channel = randomAccessFile.getChannel();
+    }
+
+    /**
+     * Opens the journal in {@code file}, creating it if needed, and reads it into memory.
+     *
+     * @throws IOException if the file cannot be read or is not a transfer journal
+     */
+    public static TransferJournal open(File file) throws IOException {
+        TransferJournal journal = new TransferJournal(file);
+        try {
+            journal.replay();
+        } catch (IOException e) {
+            journal.close();
+            throw e;
+        }
+        return journal;
+    }
+
+    /**
+     * @return true if the transfer is in the journal
+     */
+    public synchronized boolean contains(long transferId) {
+        return transferIds.contains(transferId);
+    }
+
+    /**
+     * Appends a transfer and forces it to storage, unless its id is already in the journal.
+     *
+     * @param direction {@link #INCOMING} or {@link #OUTGOING}
+     * @return false if the transfer was already recorded
+     */
+    public synchronized boolean append(long transferId, long amountCents, long timeMillis,
+                                       int direction) throws IOException {
+        checkDirection(direction);
+        if (transferIds.contains(transferId)) {
+            return false;
+        }
+        record.clear();
+        record.position(RECORD_HEADER_SIZE);
+        putEntry(record, transferId, amountCents, timeMillis, direction);
+        finishRecord(record, 1);
+        write(record);
+        add(transferId, amountCents, timeMillis, direction);
+        return true;
+    }
+
+    /**
+     * Appends the transfers of a batch as one record, with a single write and force, skipping
+     * those whose id is already in the journal or earlier in the batch. After a crash either all
+     * transfers of the batch are in the journal or none.
+     *
+     * <p>The arrays are compacted in place: on return their first entries, as many as returned,
+     * are the transfers appended, in their original order.
+     *
+     * @param count     at most {@link #MAX_BATCH}
+     * @param direction {@link #INCOMING} or {@link #OUTGOING}
+     * @return the number of transfers appended
+     */
+    public synchronized int append(long[] transferIds, long[] amountsCents, int count,
+                                   long timeMillis, int direction) throws IOException {
+        checkDirection(direction);
+        if (count > MAX_BATCH) {
+            throw new IllegalArgumentException("At most " + MAX_BATCH + " transfers, got " + count);
+        }
+        int appended = 0;
+        for (int i = 0; i < count; i++) {
+            long transferId = transferIds[i];
+            if (this.transferIds.contains(transferId)
+                    || indexOf(transferIds, appended, transferId) >= 0) {
+                continue;
+            }
+            transferIds[appended] = transferId;
+            amountsCents[appended] = amountsCents[i];
+            appended++;
+        }
+        if (appended == 0) {
+            return 0;
+        }
+        ByteBuffer batch = appended == 1 ? record : ByteBuffer.allocate(recordSize(appended));
+        batch.clear();
+        batch.position(RECORD_HEADER_SIZE);
+        for (int i = 0; i < appended; i++) {
+            putEntry(batch, transferIds[i], amountsCents[i], timeMillis, direction);
+        }
+        finishRecord(batch, appended);
+        write(batch);
+        for (int i = 0; i < appended; i++) {
+            add(transferIds[i], amountsCents[i], timeMillis, direction);
+        }
+        return appended;
+    }
+
+    /**
+     * @return the number of transfers in the journal
+     */
+    public synchronized int size() {
+        return size;
+    }
+
+    public synchronized long getTransferId(int index) {
+        checkIndex(index);
+        return ids[index];
+    }
+
+    public synchronized long getCents(int index) {
+        checkIndex(index);
+        return cents[index];
+    }
+
+    public synchronized long getTimeMillis(int index) {
+        checkIndex(index);
+        return times[index];
+    }
+
+    public synchronized boolean isIncoming(int index) {
+        checkIndex(index);
+        return directions[index] == INCOMING;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        randomAccessFile.close();
+    }
+
+    private void replay() throws IOException {
+        long length = channel.size();
+        if (length < HEADER_SIZE) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            header.putInt(MAGIC).putInt(VERSION).flip();
+            channel.truncate(0);
+            channel.write(header, 0);
+            channel.force(false);
+            end = HEADER_SIZE;
+            return;
+        }
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        readFully(header, 0);
+        if (header.getInt(0) != MAGIC || header.getInt(4) != VERSION) {
+            throw new IOException("Not a transfer journal: " + file);
+        }
+        long position = HEADER_SIZE;
+        DataInputStream in = new DataInputStream(new BufferedInputStream(
+                new FileInputStream(file)));
+        try {
+            in.skipBytes(HEADER_SIZE);
+            // The count and the entries of a record, checked before any of them is added.
+            ByteBuffer entries = ByteBuffer.allocate(recordSize(16));
+            while (length - position >= RECORD_HEADER_SIZE) {
+                int expected = in.readInt();
+                int count = in.readInt();
+                if (count < 1 || count > MAX_BATCH || length - position < recordSize(count)) {
+                    break;
+                }
+                if (entries.capacity() < 4 + count * ENTRY_SIZE) {
+                    entries = ByteBuffer.allocate(recordSize(count));
+                }
+                entries.clear();
+                entries.putInt(count);
+                in.readFully(entries.array(), 4, count * ENTRY_SIZE);
+                crc.reset();
+                crc.update(entries.array(), 0, 4 + count * ENTRY_SIZE);
+                if ((int) crc.getValue() != expected || !hasValidDirections(entries, count)) {
+                    break;
+                }
+                for (int i = 0; i < count; i++) {
+                    int offset = 4 + i * ENTRY_SIZE;
+                    long transferId = entries.getLong(offset);
+                    // append() never writes an id twice; should it happen anyway, the first one
+                    // counts.
+                    if (!transferIds.contains(transferId)) {
+                        add(transferId, entries.getLong(offset + 8), entries.getLong(offset + 16),
+                                entries.getInt(offset + 24));
+                    }
+                }
+                position += recordSize(count);
+            }
+        } finally {
+            in.close();
+        }
+        if (position < length) {
+            // Drop the torn or corrupt tail so the next append starts on a record boundary.
+            channel.truncate(position);
+            channel.force(false);
+        }
+        end = position;
+    }
+
+    private void readFully(ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position);
+            if (read < 0) {
+                throw new IOException("Unexpected end of " + file);
+            }
+            position += read;
+        }
+    }
+
+    private static int recordSize(int count) {
+        return RECORD_HEADER_SIZE + count * ENTRY_SIZE;
+    }
+
+    private static void putEntry(ByteBuffer buffer, long transferId, long amountCents,
+                                 long timeMillis, int direction) {
+        buffer.putLong(transferId).putLong(amountCents).putLong(timeMillis).putInt(direction);
+    }
+
+    /**
+     * Fills in the header of the record of {@code count} entries in {@code buffer}, which starts
+     * at 0, and flips it for writing.
+     */
+    private void finishRecord(ByteBuffer buffer, int count) {
+        buffer.putInt(4, count);
+        crc.reset();
+        crc.update(buffer.array(), 4, buffer.position() - 4);
+        buffer.putInt(0, (int) crc.getValue());
+        buffer.flip();
+    }
+
+    /**
+     * @param entries the count of a record followed by its {@code count} entries
+     */
+    private static boolean hasValidDirections(ByteBuffer entries, int count) {
+        for (int i = 0; i < count; i++) {
+            int direction = entries.getInt(4 + i * ENTRY_SIZE + 24);
+            if (direction != INCOMING && direction != OUTGOING) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void write(ByteBuffer record) throws IOException {
+        long position = end;
+        while (record.hasRemaining()) {
+            position += channel.write(record, position);
+        }
+        channel.force(false);
+        // Only now, so a failed write is overwritten by the next append.
+        end = position;
+    }
+
+    private static int indexOf(long[] values, int count, long value) {
+        for (int i = 0; i < count; i++) {
+            if (values[i] == value) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static void checkDirection(int direction) {
+        if (direction != INCOMING && direction != OUTGOING) {
+            throw new IllegalArgumentException("Unknown direction " + direction);
+        }
+    }
+
+    private void add(long transferId, long amountCents, long timeMillis, int direction) {
+        if (size == ids.length) {
+            int capacity = size * 2;
+            ids = Arrays.copyOf(ids, capacity);
+            cents = Arrays.copyOf(cents, capacity);
+            times = Arrays.copyOf(times, capacity);
+            directions = Arrays.copyOf(directions, capacity);
+        }
+        transferIds.add(transferId);
+        ids[size] = transferId;
+        cents[size] = amountCents;
+        times[size] = timeMillis;
+        directions[size] = (byte) direction;
+        size++;
+    }
+
+    private void checkIndex(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Index " + index + ", size " + size);
+        }
+    }
+}
@@ -0,0 +1,118 @@
+package com.beam2pay.core;
+
+import java.security.SecureRandom;
+
+/**
+ * Payload of the NDEF record carrying beamed transfers, sent with {@link #MIME_TYPE}: a random
+ * transfer id followed by the amount in {@link Cents}, both as 8 byte big-endian longs.
+ *
+ * <p>A record may pack a batch of up to {@link #MAX_TRANSFERS} transfers, e.g. the line items of
+ * a split bill, one after the other; the receiver applies them together.
+ *
+ * <p>The id lets the receiver recognize a transfer it already credited, see
+ * {@link TransferJournal}. Older versions of the app sent the amount as a big-endian float in
+ * the first 4 of 8 bytes with {@link #LEGACY_MIME_TYPE}; such beams are still accepted and
+ * rounded to cents, but carry no id.
+ */
+public final class TransferPayload {
+
+    public static final String MIME_TYPE = "application/com.beam2pay.cents";
+    public static final String LEGACY_MIME_TYPE = "application/com.example.android.beam";
+    public static final int LENGTH = 16;
+    public static final int MAX_TRANSFERS = 32;
+
+    private static final int ID_OFFSET = 0;
+    private static final int CENTS_OFFSET = 8;
+
+    private static final SecureRandom RANDOM = new SecureRandom();
+
+    private TransferPayload() {
+    }
+
+    /**
+     * @return a new transfer id, unique with overwhelming probability across devices
+     */
+    public static long newTransferId() {
+        return RANDOM.nextLong();
+    }
+
+    /**
+     * Writes the transfer to {@code dst[offset, offset + LENGTH)}.
+     */
+    public static void encode(long transferId, long cents, byte[] dst, int offset) {
+        putLong(transferId, dst, offset + ID_OFFSET);
+        putLong(cents, dst, offset + CENTS_OFFSET);
+    }
+
+    public static byte[] toByteArray(long transferId, long cents) {
+        byte[] bytes = new byte[LENGTH];
+        encode(transferId, cents, bytes, 0);
+        return bytes;
+    }
+
+    /**
+     * @return the payload of a record packing the first {@code count} transfers
+     */
+    public static byte[] toByteArray(long[] transferIds, long[] cents, int count) {
+        if (count < 1 || count > MAX_TRANSFERS) {
+            throw new IllegalArgumentException("Batch of " + count + " transfers");
+        }
+        byte[] bytes = new byte[count * LENGTH];
+        for (int i = 0; i < count; i++) {
+            encode(transferIds[i], cents[i], bytes, i * LENGTH);
+        }
+        return bytes;
+    }
+
+    /**
+     * @return the number of transfers packed in a payload of {@code payloadLength} bytes, or -1
+     * if no valid payload has that length. The transfer {@code i} is at offset
+     * {@code i * LENGTH}.
+     */
+    public static int count(int payloadLength) {
+        int count = payloadLength / LENGTH;
+        return payloadLength % LENGTH == 0 && count >= 1 && count <= MAX_TRANSFERS ? count : -1;
+    }
+
+    public static long decodeTransferId(byte[] src, int offset) {
+        return getLong(src, offset + ID_OFFSET);
+    }
+
+    /**
+     * @return the amount in cents of the transfer at {@code src[offset, offset + LENGTH)}
+     */
+    public static long decodeCents(byte[] src, int offset) {
+        return getLong(src, offset + CENTS_OFFSET);
+    }
+
+    /**
+     * Reads the payload of {@link #LEGACY_MIME_TYPE} records.
+     *
+     * @return the amount in cents, rounded to the nearest cent
+     * @throws IllegalArgumentException if the payload is shorter than 4 bytes
+     */
+    public static long decodeLegacy(byte[] payload) throws IllegalArgumentException {
+        if (payload.length < 4) {
+            throw new IllegalArgumentException("Legacy payload too short: " + payload.length);
+        }
+        int bits = ((payload[0] & 0xFF) << 24) | ((payload[1] & 0xFF) << 16)
+                | ((payload[2] & 0xFF) << 8) | (payload[3] & 0xFF);
+        // Rounded in double: the float itself is only accurate to about 7 digits.
+        return Math.round((double) Float.intBitsToFloat(bits) * 100);
+    }
+
+    private static void putLong(long value, byte[] dst, int offset) {
+        for (int i = 7; i >= 0; i--) {
+            dst[offset + i] = (byte) value;
+            value >>>= 8;
+        }
+    }
+
+    private static long getLong(byte[] src, int offset) {
+        long value = 0;
+        for (int i = 0; i < 8; i++) {
+            value = (value << 8) | (src[offset + i] & 0xFF);
+        }
+        return value;
+    }
+}
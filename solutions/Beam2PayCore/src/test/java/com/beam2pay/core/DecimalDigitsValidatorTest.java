@@ -0,0 +1,96 @@
+package com.beam2pay.core;
+
+import org.junit.Test;
+
+import java.util.Random;
+import java.util.regex.Pattern;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks the DFA against the regular expression DecimalDigitsInputFilter used before it, on random
+ * texts and edits.
+ */
+public class DecimalDigitsValidatorTest {
+
+    private static final long SEED = 20131009L;
+    private static final int CASES = 20000;
+    // Mostly digits and points, so that valid amounts are common.
+    private static final String ALPHABET = "0123456789.-a ";
+
+    /**
+     * The pattern the filter matched before, as built for
+     * DecimalDigitsInputFilter(digitsBeforeZero + 1, digitsAfterZero + 1).
+     */
+    private static Pattern legacyPattern(int digitsBeforeZero, int digitsAfterZero) {
+        return Pattern.compile("[0-9]{0," + digitsBeforeZero + "}+((\\.[0-9]{0,"
+                + digitsAfterZero + "})?)||(\\.)?");
+    }
+
+    @Test
+    public void acceptsAmountsAndTheirBeginnings() {
+        DecimalDigitsValidator validator = new DecimalDigitsValidator(6, 2);
+        assertTrue(validator.matches(""));
+        assertTrue(validator.matches("12"));
+        assertTrue(validator.matches("12."));
+        assertTrue(validator.matches(".5"));
+        assertTrue(validator.matches("12.50"));
+        assertFalse(validator.matches("1.2.3"));
+        assertFalse(validator.matches("-1"));
+        assertFalse(validator.matches("12.505"));
+        assertFalse(validator.matches("1234567"));
+    }
+
+    @Test
+    public void matchesLikeLegacyPattern() {
+        Random random = new Random(SEED);
+        for (int before = 0; before <= 8; before++) {
+            for (int after = 0; after <= 4; after++) {
+                Pattern pattern = legacyPattern(before, after);
+                DecimalDigitsValidator validator = new DecimalDigitsValidator(before, after);
+                for (int i = 0; i < CASES; i++) {
+                    String text = randomText(random, 12);
+                    assertEquals(before + ", " + after + ": \"" + text + "\"",
+                            pattern.matcher(text).matches(), validator.matches(text));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void acceptsEditLikeLegacyPatternOnResult() {
+        Random random = new Random(SEED);
+        for (int before = 0; before <= 8; before++) {
+            for (int after = 0; after <= 4; after++) {
+                Pattern pattern = legacyPattern(before, after);
+                DecimalDigitsValidator validator = new DecimalDigitsValidator(before, after);
+                for (int i = 0; i < CASES; i++) {
+                    String dest = randomText(random, 12);
+                    int dstart = random.nextInt(dest.length() + 1);
+                    int dend = dstart + random.nextInt(dest.length() - dstart + 1);
+                    String source = randomText(random, 6);
+                    int start = random.nextInt(source.length() + 1);
+                    int end = start + random.nextInt(source.length() - start + 1);
+                    String result = dest.substring(0, dstart) + source.substring(start, end)
+                            + dest.substring(dend);
+                    assertEquals(before + ", " + after + ": \"" + dest + "\" to \"" + result + "\"",
+                            pattern.matcher(result).matches(),
+                            validator.acceptsEdit(source, start, end, dest, dstart, dend));
+                }
+            }
+        }
+    }
+
+    private static String randomText(Random random, int maxLength) {
+        int length = random.nextInt(maxLength + 1);
+        StringBuilder text = new StringBuilder(length);
+        for (int i = 0; i < length; i++) {
+            // One character in three from the whole alphabet, the others digits or a point.
+            int bound = random.nextInt(3) == 0 ? ALPHABET.length() : 11;
+            text.append(ALPHABET.charAt(random.nextInt(bound)));
+        }
+        return text.toString();
+    }
+}
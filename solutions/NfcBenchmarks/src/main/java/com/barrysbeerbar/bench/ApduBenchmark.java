@@ -0,0 +1,98 @@
+package com.barrysbeerbar.bench;
+
+import com.barrysbeerbar.apdu.CommandApdu;
+import com.barrysbeerbar.apdu.Hex;
+import com.barrysbeerbar.apdu.Iso7816;
+import com.barrysbeerbar.apdu.LoyaltyCard;
+import com.barrysbeerbar.apdu.ResponseApdu;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.UnsupportedEncodingException;
+import java.nio.charset.Charset;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Building the SELECT command, building the SELECT response on the card and slicing it on the
+ * reader, each once per tap.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ApduBenchmark {
+
+    private static final Charset US_ASCII = Charset.forName("US-ASCII");
+    private static final String AID = Hex.toHexString(LoyaltyCard.AID);
+    private static final byte[] SELECT_OK_SW = {(byte) 0x90, (byte) 0x00};
+
+    byte[] name = "Barry Beerbar".getBytes(US_ASCII);
+    byte[] selectResponse = Legacy.ConcatArrays(name, SELECT_OK_SW);
+    CommandApdu command = new CommandApdu();
+    ResponseApdu response = new ResponseApdu();
+    byte[] buffer = new byte[Iso7816.MAX_SHORT_NE + 2];
+
+    @Benchmark
+    public byte[] legacyBuildSelectApdu() {
+        return Legacy.BuildSelectApdu(AID);
+    }
+
+    @Benchmark
+    public byte[] buildSelectApdu() {
+        return CommandApdu.buildSelectApdu(LoyaltyCard.AID);
+    }
+
+    /**
+     * Encodes SELECT into a reused buffer, as ApduSession does.
+     */
+    @Benchmark
+    public int encodeSelectApdu() {
+        return command.set(Iso7816.CLA_ISO, Iso7816.INS_SELECT, Iso7816.P1_SELECT_BY_NAME,
+                Iso7816.P2_SELECT_FIRST, LoyaltyCard.AID, 0, LoyaltyCard.AID.length, 0)
+                .encode(buffer, 0);
+    }
+
+    @Benchmark
+    public byte[] legacyConcatArrays() {
+        return Legacy.ConcatArrays(name, SELECT_OK_SW);
+    }
+
+    @Benchmark
+    public byte[] encodeResponse() {
+        byte[] apdu = new byte[name.length + 2];
+        ResponseApdu.encode(apdu, 0, name, 0, name.length, Iso7816.SW_NO_ERROR);
+        return apdu;
+    }
+
+    @Benchmark
+    public String legacyReadSelectResponse() throws UnsupportedEncodingException {
+        return Legacy.readSelectResponse(selectResponse);
+    }
+
+    /**
+     * Checks the status word in place and only copies the name, as OrderTransaction does.
+     */
+    @Benchmark
+    public String parseSelectResponse() {
+        if (!response.parse(selectResponse) || !response.isOk()) {
+            return null;
+        }
+        return new String(response.getBuffer(), response.getDataOffset(),
+                response.getDataLength(), US_ASCII);
+    }
+
+    @Benchmark
+    public int statusWord() {
+        return ResponseApdu.statusWord(selectResponse, 0, selectResponse.length);
+    }
+}
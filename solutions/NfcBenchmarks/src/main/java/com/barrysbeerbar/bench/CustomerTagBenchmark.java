@@ -0,0 +1,65 @@
+package com.barrysbeerbar.bench;
+
+import com.barrysbeerbar.reader.CustomerTag;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.charset.Charset;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * What the reader writes to a MIFARE Ultralight tag on registration: the customer name padded
+ * to 16 characters with padRight, since replaced by a 4 byte {@link CustomerTag}.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class CustomerTagBenchmark {
+
+    private static final Charset US_ASCII = Charset.forName("US-ASCII");
+
+    String customerName = "Barry";
+    byte[] page = new byte[CustomerTag.LENGTH];
+    byte[] legacyPage = Legacy.padRight(customerName, 16).getBytes(US_ASCII);
+    int customerId = 4711;
+
+    @Benchmark
+    public String legacyPadRight() {
+        return Legacy.padRight(customerName, 16);
+    }
+
+    /**
+     * padRight and the conversion to the bytes written to the tag.
+     */
+    @Benchmark
+    public byte[] legacyTagPayload() {
+        return Legacy.padRight(customerName, 16).getBytes(US_ASCII);
+    }
+
+    @Benchmark
+    public byte[] encodeCustomerTag() {
+        CustomerTag.encode(customerId, page, 0);
+        return page;
+    }
+
+    @Benchmark
+    public int decodeCustomerTag() {
+        return CustomerTag.decode(page, 0);
+    }
+
+    @Benchmark
+    public String legacyReadTag() {
+        return new String(legacyPage, US_ASCII).trim();
+    }
+}
@@ -0,0 +1,88 @@
+package com.barrysbeerbar.bench;
+
+import com.barrysbeerbar.apdu.Hex;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Hex encoding and decoding, as used for the AID, trace dumps and debug logging of APDUs.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class HexBenchmark {
+
+    // 5: the loyalty card AID, 16: a short APDU, 256: a full short response.
+    @Param({"5", "16", "256"})
+    int length;
+
+    byte[] bytes;
+    String hex;
+    byte[] byteBuffer;
+    char[] charBuffer;
+    StringBuilder builder;
+
+    @Setup
+    public void setUp() {
+        bytes = new byte[length];
+        new Random(length).nextBytes(bytes);
+        hex = Hex.toHexString(bytes);
+        byteBuffer = new byte[length];
+        charBuffer = new char[2 * length];
+        builder = new StringBuilder(2 * length);
+    }
+
+    @Benchmark
+    public byte[] legacyHexStringToByteArray() {
+        return Legacy.HexStringToByteArray(hex);
+    }
+
+    @Benchmark
+    public byte[] hexToByteArray() {
+        return Hex.toByteArray(hex);
+    }
+
+    @Benchmark
+    public byte[] hexDecodeIntoBuffer() {
+        Hex.decode(hex, 0, hex.length(), byteBuffer, 0);
+        return byteBuffer;
+    }
+
+    @Benchmark
+    public String legacyByteArrayToHexString() {
+        return Legacy.ByteArrayToHexString(bytes);
+    }
+
+    @Benchmark
+    public String hexToHexString() {
+        return Hex.toHexString(bytes);
+    }
+
+    @Benchmark
+    public char[] hexEncodeIntoBuffer() {
+        Hex.encode(bytes, 0, bytes.length, charBuffer, 0);
+        return charBuffer;
+    }
+
+    @Benchmark
+    public StringBuilder hexEncodeIntoBuilder() {
+        builder.setLength(0);
+        return Hex.encode(bytes, 0, bytes.length, builder);
+    }
+}
@@ -0,0 +1,109 @@
+package com.barrysbeerbar.bench;
+
+import java.io.UnsupportedEncodingException;
+import java.util.Arrays;
+
+/**
+ * The per-tap utilities as the card and the reader first shipped them, kept as the baseline the
+ * benchmarks compare the current code with.
+ */
+final class Legacy {
+
+    // ISO-DEP command HEADER for selecting an AID.
+    // Format: [Class | Instruction | Parameter 1 | Parameter 2]
+    private static final String SELECT_APDU_HEADER = "00A40400";
+    private static final byte[] SELECT_OK_SW = {(byte) 0x90, (byte) 0x00};
+
+    private Legacy() {
+    }
+
+    /**
+     * CardService.BuildSelectApdu(String).
+     */
+    static byte[] BuildSelectApdu(String aid) {
+        // Format: [CLASS | INSTRUCTION | PARAMETER 1 | PARAMETER 2 | LENGTH | DATA]
+        return HexStringToByteArray(SELECT_APDU_HEADER + String.format("%02X",
+                aid.length() / 2) + aid);
+    }
+
+    /**
+     * CardService.ByteArrayToHexString(byte[]).
+     */
+    static String ByteArrayToHexString(byte[] bytes) {
+        final char[] hexArray = {'0','1','2','3','4','5','6','7','8','9','A','B','C','D','E','F'};
+        char[] hexChars = new char[bytes.length * 2]; // Each byte has two hex characters (nibbles)
+        int v;
+        for (int j = 0; j < bytes.length; j++) {
+            v = bytes[j] & 0xFF; // Cast bytes[j] to int, treating as unsigned value
+            hexChars[j * 2] = hexArray[v >>> 4]; // Select hex character from upper nibble
+            hexChars[j * 2 + 1] = hexArray[v & 0x0F]; // Select hex character from lower nibble
+        }
+        return new String(hexChars);
+    }
+
+    /**
+     * CardService.HexStringToByteArray(String).
+     */
+    static byte[] HexStringToByteArray(String s) throws IllegalArgumentException {
+        int len = s.length();
+        if (len % 2 == 1) {
+            throw new IllegalArgumentException("Hex string must have even number of characters");
+        }
+        byte[] data = new byte[len / 2]; // Allocate 1 byte per 2 hex characters
+        for (int i = 0; i < len; i += 2) {
+            // Convert each character into a integer (base-16), then bit-shift into place
+            data[i / 2] = (byte) ((Character.digit(s.charAt(i), 16) << 4)
+                    + Character.digit(s.charAt(i + 1), 16));
+        }
+        return data;
+    }
+
+    /**
+     * CardService.ConcatArrays(byte[], byte[]...).
+     */
+    static byte[] ConcatArrays(byte[] first, byte[]... rest) {
+        int totalLength = first.length;
+        for (byte[] array : rest) {
+            totalLength += array.length;
+        }
+        byte[] result = Arrays.copyOf(first, totalLength);
+        int offset = first.length;
+        for (byte[] array : rest) {
+            System.arraycopy(array, 0, result, offset, array.length);
+            offset += array.length;
+        }
+        return result;
+    }
+
+    /**
+     * The reader's MainActivity.padRight(String, int), used to write the customer name to
+     * MIFARE Ultralight tags.
+     */
+    static String padRight(String s, int n) {
+        return String.format("%1$-" + n + "s", s);
+    }
+
+    /**
+     * The toast the reader's MainActivity shows for every order.
+     */
+    static String orderToast(String customerName, int orders) {
+        return String.format("%s wants a beer! %s now has %d orders.", customerName, customerName,
+                orders);
+    }
+
+    /**
+     * The status word slicing of the reader's MainActivity.readIsoDepTag(IsoDep), applied to the
+     * response to SELECT.
+     *
+     * @return the card holder name, or null if the card did not answer 0x9000
+     */
+    static String readSelectResponse(byte[] result) throws UnsupportedEncodingException {
+        int resultLength = result.length;
+        byte[] statusWord = {result[resultLength - 2], result[resultLength - 1]};
+        byte[] payload = Arrays.copyOf(result, resultLength - 2);
+        if (Arrays.equals(SELECT_OK_SW, statusWord)) {
+            return new String(payload, "US-ASCII");
+        }
+        return null;
+    }
+}
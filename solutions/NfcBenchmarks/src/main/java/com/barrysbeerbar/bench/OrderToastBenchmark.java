@@ -0,0 +1,69 @@
+package com.barrysbeerbar.bench;
+
+import com.nfcworkshop.format.Formats;
+import com.nfcworkshop.format.MessageTemplate;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The texts the readers build on every tap: the order toast and the padded name BarrysBeerBar
+ * writes to a MIFARE Ultralight tag, with String.format (legacy) and with NfcFormat into a
+ * reused builder.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class OrderToastBenchmark {
+
+    String customerName = "Barry";
+    int orders = 42;
+    StringBuilder text = new StringBuilder();
+    MessageTemplate orderToast = new MessageTemplate("{} wants a beer! {} now has {} orders.");
+
+    @Benchmark
+    public String legacyOrderToast() {
+        return Legacy.orderToast(customerName, orders);
+    }
+
+    /**
+     * Appended to the frame's toast text, as BarrysBeerBarHce does.
+     */
+    @Benchmark
+    public StringBuilder orderToast() {
+        text.setLength(0);
+        return orderToast.appendTo(text).text(customerName).text(customerName).number(orders)
+                .done();
+    }
+
+    /**
+     * Including the String handed to Toast, as BarrysBeerBar does.
+     */
+    @Benchmark
+    public String orderToastString() {
+        return orderToast().toString();
+    }
+
+    @Benchmark
+    public String legacyPadRight() {
+        return Legacy.padRight(customerName, 16);
+    }
+
+    @Benchmark
+    public String padRight() {
+        text.setLength(0);
+        return Formats.appendPadded(text, customerName, 16).toString();
+    }
+}
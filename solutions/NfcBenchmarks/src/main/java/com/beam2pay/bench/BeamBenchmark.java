@@ -0,0 +1,105 @@
+package com.beam2pay.bench;
+
+import com.beam2pay.core.TransferPayload;
+import com.nfcworkshop.format.MessageTemplate;
+import com.beam2pay.core.Cents;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Beam2Pay's amount handling per beam: parsing the amount field, the payload conversion on each
+ * side and formatting the balance and the toast, as floats (legacy) and as {@link Cents} with
+ * NfcFormat.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class BeamBenchmark {
+
+    String amountText = "1234.56";
+    float amount = 1234.56f;
+    long transferId = 0x0123456789ABCDEFL;
+    long cents = 123456;
+    byte[] legacyPayload = Legacy.toByteArray(amount);
+    byte[] payload = TransferPayload.toByteArray(transferId, cents);
+    StringBuilder format = new StringBuilder();
+    MessageTemplate sentMessage = new MessageTemplate("Sent €{}");
+
+    @Benchmark
+    public float legacyParse() {
+        return Float.valueOf(amountText);
+    }
+
+    @Benchmark
+    public long parse() {
+        return Cents.parse(amountText);
+    }
+
+    @Benchmark
+    public byte[] legacyToByteArray() {
+        return Legacy.toByteArray(amount);
+    }
+
+    @Benchmark
+    public byte[] toByteArray() {
+        return TransferPayload.toByteArray(transferId, cents);
+    }
+
+    @Benchmark
+    public byte[] encodeIntoBuffer() {
+        TransferPayload.encode(transferId, cents, payload, 0);
+        return payload;
+    }
+
+    @Benchmark
+    public float legacyToFloat() {
+        return Legacy.toFloat(legacyPayload);
+    }
+
+    @Benchmark
+    public long decode() {
+        return TransferPayload.decodeCents(payload, 0);
+    }
+
+    @Benchmark
+    public String legacyFormatFloat() {
+        return Legacy.formatFloat(amount);
+    }
+
+    /**
+     * Formats into a reused builder, as Beam does before handing the text to a view.
+     */
+    @Benchmark
+    public StringBuilder formatCents() {
+        format.setLength(0);
+        return Cents.append(format, cents);
+    }
+
+    @Benchmark
+    public String legacySentToast() {
+        return "Sent €" + Legacy.formatFloat(amount);
+    }
+
+    /**
+     * The text of the toast, as Beam hands it to Toast.makeText.
+     */
+    @Benchmark
+    public String sentToast() {
+        format.setLength(0);
+        return sentMessage.appendTo(format).fixedPoint(cents, Cents.FRACTION_DIGITS).done()
+                .toString();
+    }
+}
@@ -0,0 +1,58 @@
+package com.beam2pay.bench;
+
+import com.beam2pay.core.DecimalDigitsValidator;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+/**
+ * The amount check DecimalDigitsInputFilter.filter runs on every key press: the regex it first
+ * shipped with (legacy) and {@link DecimalDigitsValidator}, on a whole text and on the edit of
+ * typing one more digit at the end.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class DecimalDigitsFilterBenchmark {
+
+    // The field content when the filter runs: an empty field, typing, a full amount and an
+    // amount the filter rejects.
+    @Param({"", "12", "1234.5", "123456.78", "12.345"})
+    String amount;
+
+    String digit = "5";
+
+    // Same limits as Beam.
+    Pattern legacyPattern = Legacy.decimalDigitsPattern(7, 2);
+    DecimalDigitsValidator validator = new DecimalDigitsValidator(7, 2);
+
+    @Benchmark
+    public boolean legacyFilter() {
+        return legacyPattern.matcher(amount).matches();
+    }
+
+    @Benchmark
+    public boolean filter() {
+        return validator.matches(amount);
+    }
+
+    @Benchmark
+    public boolean filterKeyPress() {
+        int length = amount.length();
+        return validator.acceptsEdit(digit, 0, 1, amount, length, length);
+    }
+}
@@ -0,0 +1,48 @@
+package com.beam2pay.bench;
+
+import java.nio.ByteBuffer;
+import java.text.DecimalFormat;
+import java.util.regex.Pattern;
+
+/**
+ * Beam's amount handling as the app first shipped it, kept as the baseline the benchmarks
+ * compare the current code with.
+ */
+final class Legacy {
+
+    private Legacy() {
+    }
+
+    /**
+     * Beam.toByteArray(float).
+     */
+    static byte[] toByteArray(float value) {
+        byte[] bytes = new byte[8];
+        ByteBuffer.wrap(bytes).putFloat(value);
+        return bytes;
+    }
+
+    /**
+     * Beam.toFloat(byte[]).
+     */
+    static float toFloat(byte[] bytes) {
+        return ByteBuffer.wrap(bytes).getFloat();
+    }
+
+    /**
+     * Beam.formatFloat(float).
+     */
+    static String formatFloat(float amount) {
+        DecimalFormat formatter = new DecimalFormat("#0.00");
+        return  formatter.format(amount);
+    }
+
+    /**
+     * The pattern DecimalDigitsInputFilter(digitsBeforeZero, digitsAfterZero) matched the text
+     * before each edit against.
+     */
+    static Pattern decimalDigitsPattern(int digitsBeforeZero, int digitsAfterZero) {
+        return Pattern.compile("[0-9]{0," + (digitsBeforeZero - 1) + "}+((\\.[0-9]{0,"
+                + (digitsAfterZero - 1) + "})?)||(\\.)?");
+    }
+}
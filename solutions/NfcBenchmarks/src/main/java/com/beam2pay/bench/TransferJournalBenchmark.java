@@ -0,0 +1,91 @@
+package com.beam2pay.bench;
+
+import com.beam2pay.core.TransferJournal;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The duplicate check Beam2Pay runs on every received beam, against histories of different
+ * lengths: {@link TransferJournal#contains} next to a scan of the history, which it replaces.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class TransferJournalBenchmark {
+
+    @Param({"100", "10000"})
+    int historySize;
+
+    File file;
+    TransferJournal journal;
+    // The newest transfer, the worst case for the scan, and one that is not in the journal.
+    long knownId;
+    long unknownId;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        file = File.createTempFile("transfers", ".journal");
+        journal = TransferJournal.open(file);
+        Random random = new Random(42);
+        for (int i = 0; i < historySize; i++) {
+            knownId = random.nextLong();
+            journal.append(knownId, 750, i, TransferJournal.INCOMING);
+        }
+        unknownId = random.nextLong();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        journal.close();
+        file.delete();
+    }
+
+    @Benchmark
+    public boolean scanKnown() {
+        return scan(knownId);
+    }
+
+    @Benchmark
+    public boolean scanUnknown() {
+        return scan(unknownId);
+    }
+
+    @Benchmark
+    public boolean containsKnown() {
+        return journal.contains(knownId);
+    }
+
+    @Benchmark
+    public boolean containsUnknown() {
+        return journal.contains(unknownId);
+    }
+
+    private boolean scan(long transferId) {
+        for (int i = 0, size = journal.size(); i < size; i++) {
+            if (journal.getTransferId(i) == transferId) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,71 @@
+package com.nfcworkshop.format;
+
+/**
+ * Appends numbers and text to a caller-supplied {@link StringBuilder}, without format strings or
+ * intermediate objects.
+ */
+public final class Formats {
+
+    private static final long[] POWERS_OF_TEN = {
+            1L, 10L, 100L, 1000L, 10000L, 100000L, 1000000L, 10000000L, 100000000L
+    };
+
+    /**
+     * Largest number of fraction digits {@link #appendFixedPoint} supports.
+     */
+    public static final int MAX_FRACTION_DIGITS = POWERS_OF_TEN.length - 1;
+
+    private Formats() {
+    }
+
+    /**
+     * Appends {@code value / 10^fractionDigits} with exactly {@code fractionDigits} decimals and
+     * at least one digit before the decimal point, e.g. 1250 with 2 digits as "12.50", 5 as
+     * "0.05" and -300 as "-3.00"; without a decimal point for 0 digits.
+     *
+     * @return {@code dst}
+     * @throws IllegalArgumentException if {@code fractionDigits} is negative or larger than
+     * {@link #MAX_FRACTION_DIGITS}
+     */
+    public static StringBuilder appendFixedPoint(StringBuilder dst, long value,
+                                                 int fractionDigits) {
+        if (fractionDigits < 0 || fractionDigits > MAX_FRACTION_DIGITS) {
+            throw new IllegalArgumentException("Fraction digits: " + fractionDigits);
+        }
+        long scale = POWERS_OF_TEN[fractionDigits];
+        long units = value / scale;
+        long fraction = value % scale;
+        if (value < 0) {
+            if (units == Long.MIN_VALUE) {
+                // Only with 0 fraction digits; it has no positive counterpart to negate to.
+                return dst.append(value);
+            }
+            dst.append('-');
+            // Negated after dividing: for any other value both parts have a positive counterpart.
+            units = -units;
+            fraction = -fraction;
+        }
+        dst.append(units);
+        if (fractionDigits > 0) {
+            dst.append('.');
+            for (long digit = scale / 10; digit > 0; digit /= 10) {
+                dst.append((char) ('0' + fraction / digit % 10));
+            }
+        }
+        return dst;
+    }
+
+    /**
+     * Appends {@code s} followed by spaces up to {@code width} characters, like
+     * String.format("%-<width>s", s); longer text is appended whole.
+     *
+     * @return {@code dst}
+     */
+    public static StringBuilder appendPadded(StringBuilder dst, CharSequence s, int width) {
+        dst.append(s);
+        for (int i = s.length(); i < width; i++) {
+            dst.append(' ');
+        }
+        return dst;
+    }
+}
@@ -0,0 +1,112 @@
+package com.nfcworkshop.format;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A message with {@code {}} placeholders, filled in straight into a {@link StringBuilder}.
+ *
+ * <p>The template is split into its literal parts once, when it is created. A message is then
+ * written with {@link #appendTo}, one call per placeholder in order, and {@link #done()}:
+ * <pre>
+ * new MessageTemplate("{} wants a beer! {} now has {} orders.")
+ *         .appendTo(toastText).text(name).text(name).number(orders).done();
+ * </pre>
+ * Writing a message allocates nothing beyond what the builder may need to grow. The template
+ * keeps the builder between {@link #appendTo} and {@link #done()}, so an instance must only be
+ * used by one thread at a time, e.g. the UI thread.
+ */
+public final class MessageTemplate {
+
+    private static final String PLACEHOLDER = "{}";
+
+    private final String[] literals;
+    private StringBuilder dst;
+    private int next;
+
+    public MessageTemplate(String template) {
+        List<String> parts = new ArrayList<String>();
+        int start = 0;
+        int placeholder;
+        while ((placeholder = template.indexOf(PLACEHOLDER, start)) >= 0) {
+            parts.add(template.substring(start, placeholder));
+            start = placeholder + PLACEHOLDER.length();
+        }
+        parts.add(template.substring(start));
+        literals = parts.toArray(new String[parts.size()]);
+    }
+
+    /**
+     * @return the number of placeholders
+     */
+    public int getArgumentCount() {
+        return literals.length - 1;
+    }
+
+    /**
+     * Starts a message: appends the text up to the first placeholder to {@code dst}.
+     *
+     * @return this, to fill in the placeholders
+     */
+    public MessageTemplate appendTo(StringBuilder dst) {
+        this.dst = dst;
+        next = 1;
+        dst.append(literals[0]);
+        return this;
+    }
+
+    /**
+     * Fills in the next placeholder with {@code s}.
+     */
+    public MessageTemplate text(CharSequence s) {
+        checkArgument();
+        dst.append(s);
+        return appendLiteral();
+    }
+
+    /**
+     * Fills in the next placeholder with {@code n}.
+     */
+    public MessageTemplate number(long n) {
+        checkArgument();
+        dst.append(n);
+        return appendLiteral();
+    }
+
+    /**
+     * Fills in the next placeholder with {@code value / 10^fractionDigits}, see
+     * {@link Formats#appendFixedPoint}.
+     */
+    public MessageTemplate fixedPoint(long value, int fractionDigits) {
+        checkArgument();
+        Formats.appendFixedPoint(dst, value, fractionDigits);
+        return appendLiteral();
+    }
+
+    /**
+     * Ends the message.
+     *
+     * @return the builder passed to {@link #appendTo}
+     * @throws IllegalStateException if placeholders were left unfilled
+     */
+    public StringBuilder done() {
+        if (dst == null || next != literals.length) {
+            throw new IllegalStateException("Filled " + (next - 1) + " of "
+                    + getArgumentCount() + " placeholders");
+        }
+        StringBuilder message = dst;
+        dst = null;
+        return message;
+    }
+
+    private void checkArgument() {
+        if (dst == null || next == literals.length) {
+            throw new IllegalStateException("No placeholder left to fill");
+        }
+    }
+
+    private MessageTemplate appendLiteral() {
+        dst.append(literals[next++]);
+        return this;
+    }
+}